@@ -0,0 +1,67 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Percy CLI, listening where the SDK expects the CLI
+ * ({@code PERCY_SERVER_ADDRESS}). It reads and discards request bodies, so benchmarks measure
+ * the SDK and the loopback transfer, not the CLI.
+ */
+class CliStub {
+    private static final String HEALTHCHECK =
+        "{\"success\":true,\"type\":\"web\",\"widths\":{\"mobile\":[375,390],\"config\":[1280]},\"config\":{}}";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private CliStub(HttpServer server) {
+        this.server = server;
+    }
+
+    static CliStub start() throws IOException {
+        URI address = URI.create(System.getenv().getOrDefault("PERCY_SERVER_ADDRESS", "http://localhost:5338"));
+        HttpServer server = HttpServer.create(new InetSocketAddress(address.getHost(), address.getPort()), 0);
+        CliStub stub = new CliStub(server);
+
+        server.createContext("/percy/healthcheck", exchange -> {
+            exchange.getResponseHeaders().add("x-percy-core-version", "1.30.0");
+            respond(exchange, HEALTHCHECK);
+        });
+        server.createContext("/percy/dom.js", exchange -> respond(exchange, "window.PercyDOM = { serialize: function () { return {}; } };"));
+        server.createContext("/percy/snapshot", exchange -> respond(exchange, "{\"success\":true,\"data\":{}}"));
+        server.createContext("/percy/log", exchange -> respond(exchange, "{\"success\":true}"));
+        server.setExecutor(stub.executor);
+        server.start();
+        return stub;
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        // Drain the request so the connection can be reused
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[65536];
+            while (in.read(buffer) != -1) {
+                // discard
+            }
+        }
+
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package io.percy.selenium;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic serialized DOMs shaped like PercyDOM.serialize() output.
+ */
+class DomPayloads {
+    private DomPayloads() {
+    }
+
+    /**
+     * @param size {@code small} (about 10 KB), {@code medium} (about 1 MB) or {@code large} (about 20 MB).
+     */
+    static Map<String, Object> create(String size) {
+        switch (size) {
+            case "small": return create(10 * 1024, 2);
+            case "medium": return create(1024 * 1024, 20);
+            case "large": return create(20 * 1024 * 1024, 200);
+            default: throw new IllegalArgumentException("Unknown payload size " + size);
+        }
+    }
+
+    private static Map<String, Object> create(int htmlBytes, int resourceCount) {
+        String row = "<div class=\"row\"><span data-id=\"42\">Lorem ipsum dolor sit amet, \u00e9l\u00e8ve</span></div>\n";
+        StringBuilder html = new StringBuilder(htmlBytes + row.length());
+        html.append("<!DOCTYPE html><html><head><title>Benchmark</title></head><body>");
+        while (html.length() < htmlBytes) {
+            html.append(row);
+        }
+        html.append("</body></html>");
+
+        List<Map<String, Object>> resources = new ArrayList<>();
+        for (int i = 0; i < resourceCount; i++) {
+            Map<String, Object> resource = new HashMap<>();
+            resource.put("url", "http://localhost:8000/__serialized__/image-" + i + ".png");
+            resource.put("content", "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==");
+            resource.put("mimetype", "image/png");
+            resources.add(resource);
+        }
+
+        Map<String, Object> dom = new HashMap<>();
+        dom.put("html", html.toString());
+        dom.put("resources", resources);
+        dom.put("warnings", new ArrayList<>());
+        return dom;
+    }
+}
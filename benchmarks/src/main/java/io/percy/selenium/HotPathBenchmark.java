@@ -0,0 +1,110 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.SessionId;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Small per-snapshot helpers that run on every call: region building, width resolution,
+ * session metadata lookups and environment info.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotPathBenchmark {
+    private CliStub cli;
+    private RemoteWebDriver driver;
+    private Percy percy;
+    private Environment environment;
+    private Map<String, Object> regionParams;
+    private SnapshotOptions widthOptions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cli = CliStub.start();
+
+        HttpCommandExecutor commandExecutor = mock(HttpCommandExecutor.class, withSettings().stubOnly());
+        when(commandExecutor.getAddressOfRemoteServer()).thenReturn(new URL("https://hub-cloud.browserstack.com/wd/hub"));
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("browserName", "Chrome");
+        capabilities.setCapability("platformName", "linux");
+
+        driver = mock(RemoteWebDriver.class, withSettings().stubOnly());
+        when(driver.getSessionId()).thenReturn(new SessionId("benchmark"));
+        when(driver.getCommandExecutor()).thenReturn(commandExecutor);
+        when(driver.getCapabilities()).thenReturn(capabilities);
+
+        percy = new Percy(driver);
+        percy.eligibleWidths = new JSONObject("{\"mobile\":[375,390],\"config\":[1280]}");
+        environment = new Environment(driver);
+
+        regionParams = new HashMap<>();
+        regionParams.put("elementCSS", "#header");
+        regionParams.put("padding", 10);
+        regionParams.put("algorithm", "intelliignore");
+        regionParams.put("diffSensitivity", 3);
+        regionParams.put("adsEnabled", true);
+        regionParams.put("diffIgnoreThreshold", 0.2);
+
+        widthOptions = SnapshotOptions.builder().widths(Arrays.asList(768, 1280, 1920)).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cli.stop();
+    }
+
+    @Benchmark
+    public Map<String, Object> createRegion() {
+        return percy.createRegion(regionParams);
+    }
+
+    @Benchmark
+    public List<Integer> getWidthsForMultiDom() {
+        return percy.getWidthsForMultiDom(widthOptions);
+    }
+
+    // Cache hits after the first call
+    @Benchmark
+    public ConcurrentHashMap<String, String> driverMetadataCapabilities() {
+        return new DriverMetadata(driver).getCapabilities();
+    }
+
+    @Benchmark
+    public String driverMetadataCommandExecutorUrl() {
+        return new DriverMetadata(driver).getCommandExecutorUrl();
+    }
+
+    @Benchmark
+    public String environmentInfo() {
+        return environment.getEnvironmentInfo();
+    }
+}
@@ -0,0 +1,86 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Snapshot payload handling for small, medium and 20 MB DOMs: copying the serialized DOM,
+ * building the request JSON, and posting it to an in-process CLI stub.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+    @Param({ "small", "medium", "large" })
+    public String size;
+
+    private CliStub cli;
+    private RemoteWebDriver driver;
+    private Percy percy;
+    private Map<String, Object> dom;
+    private SnapshotOptions options;
+    private JSONObject payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cli = CliStub.start();
+        dom = DomPayloads.create(size);
+        options = SnapshotOptions.builder().widths(Arrays.asList(375, 1280)).build();
+
+        // stubOnly, so the mock doesn't record millions of invocations
+        driver = mock(RemoteWebDriver.class, withSettings().stubOnly());
+        when(driver.executeScript(anyString())).thenReturn(dom);
+        percy = new Percy(driver);
+
+        payload = new JSONObject(options.asMap());
+        payload.put("name", "Benchmark");
+        payload.put("domSnapshot", dom);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cli.stop();
+    }
+
+    @Benchmark
+    public Map<String, Object> getSerializedDOM() {
+        return percy.getSerializedDOM(driver, Collections.emptySet(), options);
+    }
+
+    // Builds the payload and posts it
+    @Benchmark
+    public JSONObject postSnapshot() {
+        return percy.postSnapshot(dom, "Benchmark", "http://localhost:8000/", options);
+    }
+
+    // Posts a payload built in advance; the difference to postSnapshot is the building
+    @Benchmark
+    public JSONObject request() {
+        return percy.request("/percy/snapshot", payload, "Benchmark");
+    }
+}
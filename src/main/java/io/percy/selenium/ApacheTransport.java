@@ -0,0 +1,60 @@
+package io.percy.selenium;
+
+import org.apache.http.Header;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Package-private default transport over the shared {@link PercyHttpClient} pool.
+ */
+class ApacheTransport implements PercyTransport {
+    private final String address;
+
+    ApacheTransport(String address) {
+        this.address = address;
+    }
+
+    @Override
+    public Response send(Request request) throws IOException {
+        HttpRequestBase httpRequest;
+        if (request.getBody() == null) {
+            httpRequest = new HttpGet(address + request.getPath());
+        } else {
+            HttpPost post = new HttpPost(address + request.getPath());
+            post.setEntity(request.getBody());
+            httpRequest = post;
+        }
+
+        int timeout = (int) request.getTimeout().toMillis();
+        httpRequest.setConfig(RequestConfig.copy(PercyHttpClient.requestConfig(request.getPath()))
+            .setSocketTimeout(timeout)
+            .setConnectTimeout(timeout)
+            .build());
+        request.getHeaders().forEach(httpRequest::setHeader);
+
+        try (CloseableHttpResponse response = PercyHttpClient.get().execute(httpRequest)) {
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            for (Header header : response.getAllHeaders()) {
+                headers.computeIfAbsent(header.getName(), name -> new ArrayList<>()).add(header.getValue());
+            }
+            // Reading the body to the end releases the connection back to the pool
+            byte[] body = response.getEntity() == null ? null : EntityUtils.toByteArray(response.getEntity());
+            return new Response(response.getStatusLine().getStatusCode(), headers, body);
+        }
+    }
+
+    @Override
+    public void close() {
+        PercyHttpClient.shutdown();
+    }
+}
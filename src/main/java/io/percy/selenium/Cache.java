@@ -1,7 +1,147 @@
 package io.percy.selenium;
 
-import java.util.HashMap;
+import java.time.Duration;
 import java.util.Map;
-public class Cache {
-    public static final Map CACHE_MAP = new HashMap();
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Thread-safe cache bounded by size and age.
+ *
+ * Values are loaded atomically per key, so concurrent callers asking for the same key share a
+ * single load. Once the cache holds more than {@code maxSize} entries, expired entries are
+ * dropped first, then the oldest ones. Null values are not cached.
+ */
+public final class Cache<K, V> {
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long ttlNanos;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize Most entries kept.
+     * @param ttl     How long an entry stays valid, or zero to keep it until evicted.
+     */
+    public Cache(int maxSize, Duration ttl) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * @return The cached value for {@code key}, loading it with {@code loader} if it is
+     *         missing or expired. Exceptions from the loader are thrown to the caller and
+     *         nothing is cached.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && !entry.isExpired(System.nanoTime(), ttlNanos)) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+
+        boolean[] loaded = { false };
+        entry = entries.compute(key, (k, current) -> {
+            if (current != null && !current.isExpired(System.nanoTime(), ttlNanos)) { return current; }
+            if (current != null) { evictions.incrementAndGet(); }
+
+            loaded[0] = true;
+            V value = loader.apply(k);
+            return value == null ? null : new Entry<>(value, System.nanoTime());
+        });
+
+        if (loaded[0]) {
+            misses.incrementAndGet();
+            if (entries.size() > maxSize) { evictOverflow(); }
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * @return The cached value, or null if it is missing or expired. Does not load it.
+     */
+    public V getIfPresent(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null || entry.isExpired(System.nanoTime(), ttlNanos) ? null : entry.value;
+    }
+
+    /**
+     * Drop the value for {@code key}.
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Drop every value.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * @return Number of entries, including expired ones not yet dropped.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of lookups answered from the cache.
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of lookups that ran the loader.
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return Number of entries dropped because they expired or the cache was full.
+     */
+    public long evictionCount() {
+        return evictions.get();
+    }
+
+    // Drop expired entries, then the oldest, until the cache fits
+    private synchronized void evictOverflow() {
+        long now = System.nanoTime();
+        for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+            if (e.getValue().isExpired(now, ttlNanos) && entries.remove(e.getKey(), e.getValue())) {
+                evictions.incrementAndGet();
+            }
+        }
+
+        while (entries.size() > maxSize) {
+            Map.Entry<K, Entry<V>> oldest = null;
+            for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+                if (oldest == null || e.getValue().loadedAt - oldest.getValue().loadedAt < 0) { oldest = e; }
+            }
+            if (oldest == null) { return; }
+            if (entries.remove(oldest.getKey(), oldest.getValue())) { evictions.incrementAndGet(); }
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long loadedAt;
+
+        Entry(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+
+        boolean isExpired(long now, long ttlNanos) {
+            return ttlNanos > 0 && now - loadedAt >= ttlNanos;
+        }
+    }
 }
@@ -0,0 +1,50 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chromium.HasCdp;
+import org.openqa.selenium.devtools.Command;
+import org.openqa.selenium.devtools.DevTools;
+import org.openqa.selenium.devtools.HasDevTools;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Package-private helper for sending Chrome DevTools Protocol commands.
+ *
+ * Local Chromium drivers take the command over their HTTP endpoint. Other drivers that expose
+ * DevTools, such as an augmented {@code RemoteWebDriver} for Chrome or Edge, send it over the
+ * DevTools connection.
+ */
+final class Cdp {
+    private static final List<String> CHROMIUM_BROWSERS = Arrays.asList("chrome", "chromium", "msedge", "microsoftedge");
+
+    private Cdp() {
+    }
+
+    /**
+     * @return true if the driver can send CDP commands to a Chromium browser.
+     */
+    static boolean supports(WebDriver driver) {
+        if (driver instanceof HasCdp) { return true; }
+        if (!(driver instanceof HasDevTools) || !(driver instanceof HasCapabilities)) { return false; }
+
+        String browserName = ((HasCapabilities) driver).getCapabilities().getBrowserName();
+        return browserName != null && CHROMIUM_BROWSERS.contains(browserName.toLowerCase());
+    }
+
+    /**
+     * @return The command's result.
+     */
+    static Map<String, Object> execute(WebDriver driver, String method, Map<String, Object> params) {
+        if (driver instanceof HasCdp) {
+            return ((HasCdp) driver).executeCdpCommand(method, params);
+        }
+
+        DevTools devTools = ((HasDevTools) driver).getDevTools();
+        devTools.createSessionIfThereIsNotOne();
+        return devTools.send(new Command<Map<String, Object>>(method, params, Map.class));
+    }
+}
@@ -0,0 +1,39 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.WebDriver;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Package-private {@link ResizeStrategy} that emulates the viewport over CDP, see {@link Cdp}.
+ */
+class CdpResizeStrategy implements ResizeStrategy {
+    static final CdpResizeStrategy INSTANCE = new CdpResizeStrategy();
+
+    /**
+     * @return true if the driver can send CDP commands to a Chromium browser.
+     */
+    static boolean supports(WebDriver driver) {
+        return Cdp.supports(driver);
+    }
+
+    @Override
+    public boolean resize(WebDriver driver, int width, int height) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("width", width);
+        params.put("height", height);
+        params.put("deviceScaleFactor", 1);
+        params.put("mobile", false);
+        Cdp.execute(driver, "Emulation.setDeviceMetricsOverride", params);
+        return true;
+    }
+
+    // Drop the override, so the viewport follows the window again
+    @Override
+    public boolean restore(WebDriver driver, int width, int height) {
+        Cdp.execute(driver, "Emulation.clearDeviceMetricsOverride", Collections.emptyMap());
+        return true;
+    }
+}
@@ -0,0 +1,298 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Package-private guard around the transport of one Percy CLI server. Every call to the CLI but
+ * log posts goes through {@link #send(PercyTransport.Request)}.
+ *
+ * <ul>
+ *   <li>Closed: requests go through. Requests that never reached the CLI, and GETs, are retried
+ *       up to {@code PERCY_HTTP_RETRIES} times with jittered exponential backoff.</li>
+ *   <li>Open: after {@code PERCY_BREAKER_FAILURES} requests in a row failed to connect or timed
+ *       out, requests fail at once instead of waiting on a CLI that is not responding.</li>
+ *   <li>Half-open: a background healthcheck probes the CLI, first after
+ *       {@code PERCY_BREAKER_OPEN_MS} and then backing off. When it succeeds the breaker closes,
+ *       the cached healthcheck is dropped, and {@link Percy} instances disabled during the
+ *       outage capture snapshots again.</li>
+ * </ul>
+ *
+ * Timeouts are learned per endpoint: once enough responses were seen, a request times out after
+ * ten times the 99th percentile latency, but never sooner than {@code PERCY_HTTP_MIN_TIMEOUT_MS}
+ * and never later than the endpoint's default. Snapshot and screenshot uploads, and requests
+ * given an explicit timeout, such as {@code sync} snapshots, keep theirs. Instead, while an
+ * upload is waiting on the CLI, a healthcheck makes sure every few seconds that the CLI still
+ * answers, and opens the breaker when it does not.
+ */
+final class CircuitBreaker {
+    // Consecutive failures that open the breaker, 0 to never open it
+    private static final int FAILURES = Boolean.parseBoolean(System.getenv().getOrDefault("PERCY_CIRCUIT_BREAKER", "true"))
+        ? Settings.intValue("PERCY_BREAKER_FAILURES", 5, 0) : 0;
+
+    // Time before the first probe of an open breaker; later probes back off up to MAX_PROBE_DELAY_MS
+    private static final long OPEN_MS = Settings.longValue("PERCY_BREAKER_OPEN_MS", 2000, 1);
+    private static final long MAX_PROBE_DELAY_MS = 60000;
+
+    private static final int RETRIES = Settings.intValue("PERCY_HTTP_RETRIES", 2, 0);
+    private static final long RETRY_BASE_MS = 100;
+    private static final long RETRY_MAX_MS = 2000;
+
+    private static final boolean ADAPTIVE_TIMEOUTS = Boolean.parseBoolean(System.getenv().getOrDefault("PERCY_ADAPTIVE_TIMEOUTS", "true"));
+    // Well below the endpoint defaults, so a healthcheck or dom.js request to a hung CLI fails in seconds
+    private static final long MIN_TIMEOUT_MS = Settings.longValue("PERCY_HTTP_MIN_TIMEOUT_MS", 2000, 1);
+    private static final int TIMEOUT_MULTIPLIER = 10;
+    // How long an upload takes depends on the page and the CLI's asset discovery, not on earlier uploads
+    private static final Set<String> UPLOAD_PATHS = new HashSet<>(Arrays.asList(
+        "/percy/snapshot", "/percy/snapshot/batch", "/percy/automateScreenshot"));
+    // Time an upload waits on the CLI before a healthcheck makes sure it is still answering, and between checks
+    private static final long UPLOAD_CHECK_MS = 10000;
+
+    static final String PROBE_PATH = "/percy/healthcheck";
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+
+    private static final ScheduledExecutorService PROBES = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "percy-breaker-probe");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ConcurrentHashMap<String, CircuitBreaker> INSTANCES = new ConcurrentHashMap<>();
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String address;
+    private final int failureThreshold;
+    private final long openMs;
+    private final int retries;
+    private final long minTimeoutMs;
+    private final long uploadCheckMs;
+    private final ConcurrentHashMap<String, Latencies> latencies = new ConcurrentHashMap<>();
+
+    private volatile State state = State.CLOSED;
+    private volatile int recoveries = 0;
+    private int consecutiveFailures = 0;
+    private long probeDelayMs;
+    // When a check on behalf of an outstanding upload last ran, so concurrent uploads share checks
+    private volatile long uploadCheckedAt = 0;
+
+    CircuitBreaker(String address, int failureThreshold, long openMs, int retries, long minTimeoutMs, long uploadCheckMs) {
+        this.address = address;
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+        this.retries = retries;
+        this.minTimeoutMs = minTimeoutMs;
+        this.uploadCheckMs = uploadCheckMs;
+        this.probeDelayMs = openMs;
+    }
+
+    /**
+     * @return The breaker for a server address, shared by every caller.
+     */
+    static CircuitBreaker forAddress(String address) {
+        return INSTANCES.computeIfAbsent(address, key -> new CircuitBreaker(key, FAILURES, OPEN_MS, RETRIES, MIN_TIMEOUT_MS, UPLOAD_CHECK_MS));
+    }
+
+    // Use a breaker with other settings for an address, or null to go back to the default
+    static void register(String address, CircuitBreaker breaker) {
+        if (breaker == null) {
+            INSTANCES.remove(address);
+        } else {
+            INSTANCES.put(address, breaker);
+        }
+    }
+
+    /**
+     * Send a request over the address's transport.
+     *
+     * @throws IOException If the breaker is open, or the request failed after its retries.
+     */
+    PercyTransport.Response send(PercyTransport.Request request) throws IOException {
+        if (state != State.CLOSED) {
+            throw new IOException("Percy CLI at " + address + " is not responding, skipping " + request.getPath());
+        }
+
+        Latencies endpoint = latencies.computeIfAbsent(request.getPath(), path -> new Latencies());
+        boolean upload = UPLOAD_PATHS.contains(request.getPath());
+        if (ADAPTIVE_TIMEOUTS && !request.hasExplicitTimeout() && !upload) {
+            request.timeout(timeout(request.getPath(), request.getTimeout()));
+        }
+
+        ScheduledFuture<?> check = upload && failureThreshold > 0
+            ? PROBES.scheduleWithFixedDelay(this::checkDuringUpload, uploadCheckMs, uploadCheckMs, TimeUnit.MILLISECONDS)
+            : null;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                long start = System.nanoTime();
+                try {
+                    PercyTransport.Response response = PercyTransport.forAddress(address).send(request);
+                    endpoint.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    succeeded();
+                    return response;
+                } catch (IOException e) {
+                    // One failure per request, once its retries are used up
+                    if (attempt >= retries || state != State.CLOSED || !retryable(request, e)) {
+                        failed();
+                        throw e;
+                    }
+                    backoff(attempt);
+                }
+            }
+        } finally {
+            if (check != null) { check.cancel(false); }
+        }
+    }
+
+    State state() {
+        return state;
+    }
+
+    boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * @return How many times the breaker closed again after opening.
+     */
+    int recoveries() {
+        return recoveries;
+    }
+
+    /**
+     * @param defaultTimeout The endpoint's configured timeout.
+     * @return The learned timeout for an endpoint, or the default while too little is known.
+     */
+    Duration timeout(String path, Duration defaultTimeout) {
+        Latencies endpoint = latencies.get(path);
+        long p99 = endpoint == null ? -1 : endpoint.percentile(0.99);
+        if (p99 < 0) { return defaultTimeout; }
+
+        long learned = Math.max(minTimeoutMs, p99 * TIMEOUT_MULTIPLIER);
+        return learned < defaultTimeout.toMillis() ? Duration.ofMillis(learned) : defaultTimeout;
+    }
+
+    private synchronized void succeeded() {
+        consecutiveFailures = 0;
+    }
+
+    private synchronized void failed() {
+        consecutiveFailures++;
+        if (failureThreshold > 0 && consecutiveFailures >= failureThreshold) { open(); }
+    }
+
+    private synchronized void open() {
+        if (state != State.CLOSED) { return; }
+        state = State.OPEN;
+        probeDelayMs = openMs;
+        Percy.log(address, "Percy CLI is not responding, pausing snapshots until it is back", "info");
+        scheduleProbe();
+    }
+
+    // An upload has been waiting a while; if the CLI does not answer its healthcheck either, it is hung
+    private void checkDuringUpload() {
+        long now = System.currentTimeMillis();
+        if (state != State.CLOSED || now - uploadCheckedAt < uploadCheckMs / 2) { return; }
+        uploadCheckedAt = now;
+
+        if (!isHealthy()) {
+            Percy.log(address, "Percy CLI stopped answering its healthcheck during an upload", "debug");
+            open();
+        }
+    }
+
+    private void scheduleProbe() {
+        // Jitter keeps breakers of parallel test JVMs from probing in lockstep
+        long delay = probeDelayMs / 2 + ThreadLocalRandom.current().nextLong(probeDelayMs / 2 + 1);
+        PROBES.schedule(this::probe, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void probe() {
+        synchronized (this) {
+            if (state != State.OPEN) { return; }
+            state = State.HALF_OPEN;
+        }
+
+        boolean healthy = isHealthy();
+        synchronized (this) {
+            if (healthy) {
+                state = State.CLOSED;
+                consecutiveFailures = 0;
+                recoveries++;
+            } else {
+                state = State.OPEN;
+                probeDelayMs = Math.min(probeDelayMs * 2, MAX_PROBE_DELAY_MS);
+                scheduleProbe();
+            }
+        }
+        if (healthy) {
+            Percy.log(address, "Percy CLI is responding again, resuming snapshots", "info");
+            PercyServerInfo.forAddress(address).invalidate();
+        }
+    }
+
+    // Sent past the breaker, so a failed check is not counted as a failed request
+    private boolean isHealthy() {
+        try {
+            PercyTransport.Request request = PercyTransport.Request.get(PROBE_PATH).timeout(PROBE_TIMEOUT);
+            return PercyTransport.forAddress(address).send(request).getStatus() == 200;
+        } catch (IOException | RuntimeException e) {
+            Percy.log(address, "Percy CLI probe failed: " + e, "debug");
+            return false;
+        }
+    }
+
+    // A request that never reached the CLI can be sent again; so can a GET that did not time out
+    private static boolean retryable(PercyTransport.Request request, IOException e) {
+        if (request.getBody() != null && !request.getBody().isRepeatable()) { return false; }
+        if (e instanceof ConnectException) { return true; }
+        return "GET".equals(request.getMethod()) && !(e instanceof SocketTimeoutException);
+    }
+
+    private static void backoff(int attempt) throws IOException {
+        long ceiling = Math.min(RETRY_MAX_MS, RETRY_BASE_MS << attempt);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrying a Percy CLI request", e);
+        }
+    }
+
+    // Latencies of the most recent responses from one endpoint
+    private static final class Latencies {
+        private static final int SIZE = 128;
+        // Percentiles are not used until this many responses were seen
+        private static final int MIN_SAMPLES = 20;
+
+        private final long[] samples = new long[SIZE];
+        private int count = 0;
+        private int next = 0;
+
+        synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % SIZE;
+            count = Math.min(count + 1, SIZE);
+        }
+
+        synchronized long percentile(double percentile) {
+            if (count < MIN_SAMPLES) { return -1; }
+
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.min(count - 1, Math.ceil(percentile * count) - 1)];
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Package-private lookup of the remote server address behind a driver's command executor.
+ *
+ * Wrapping executors, such as Selenium's {@code TracedCommandExecutor}, hold the real executor
+ * in a field. Each executor class is inspected once for a {@code CommandExecutor} field, and its
+ * getter is cached as a {@link MethodHandle}. Nested wrappers are followed down to the
+ * {@link HttpCommandExecutor}.
+ */
+class CommandExecutorUnwrapper {
+    // Deepest chain of wrappers followed
+    private static final int MAX_DEPTH = 8;
+
+    // Cached for executor classes that don't wrap another executor
+    private static final MethodHandle NO_DELEGATE = MethodHandles.constant(Object.class, null);
+
+    private static final ConcurrentHashMap<Class<?>, MethodHandle> DELEGATES = new ConcurrentHashMap<>();
+
+    private CommandExecutorUnwrapper() {
+    }
+
+    /**
+     * @return The address of the remote server, or null if no {@link HttpCommandExecutor} was found.
+     */
+    static URL addressOf(CommandExecutor executor) {
+        for (int depth = 0; executor != null && depth < MAX_DEPTH; depth++) {
+            if (executor instanceof HttpCommandExecutor) {
+                return ((HttpCommandExecutor) executor).getAddressOfRemoteServer();
+            }
+
+            MethodHandle delegate = DELEGATES.computeIfAbsent(executor.getClass(), CommandExecutorUnwrapper::findDelegate);
+            if (delegate == NO_DELEGATE) { break; }
+            try {
+                executor = (CommandExecutor) delegate.invoke(executor);
+            } catch (Throwable e) {
+                Percy.log("Could not unwrap " + executor.getClass().getName() + ": " + e, "debug");
+                return null;
+            }
+        }
+
+        Percy.log("No HttpCommandExecutor found behind " + (executor == null ? "null" : executor.getClass().getName()), "debug");
+        return null;
+    }
+
+    // Getter for the field holding the wrapped executor, preferring one named `delegate`
+    private static MethodHandle findDelegate(Class<?> executorClass) {
+        Field found = null;
+        for (Class<?> c = executorClass; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!CommandExecutor.class.isAssignableFrom(field.getType())) { continue; }
+                if (found == null || "delegate".equals(field.getName())) { found = field; }
+            }
+            if (found != null) { break; }
+        }
+        if (found == null) { return NO_DELEGATE; }
+
+        try {
+            found.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(found);
+        } catch (IllegalAccessException | RuntimeException e) {
+            // e.g. the field is in a module that isn't open to this one
+            Percy.log("Cannot read " + found + ": " + e, "debug");
+            return NO_DELEGATE;
+        }
+    }
+}
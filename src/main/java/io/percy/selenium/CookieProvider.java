@@ -0,0 +1,130 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Package-private source of the cookies attached to each snapshot, one per {@link Percy}.
+ *
+ * Cookies are read for every snapshot. With {@code PERCY_COOKIE_CACHE=true} they are reused
+ * instead while the page is unchanged: the serialize script also returns a fingerprint of the
+ * page, made of its origin, when it was loaded, and the cookies visible to scripts. Cookies are
+ * cached per origin along with that fingerprint, so another snapshot of the same page load with
+ * unchanged cookies costs no WebDriver command. Navigating, or changing {@code document.cookie},
+ * changes the fingerprint and the cookies are read again. HttpOnly cookies set by a fetch
+ * without a navigation are not detected, which is why the cache is off by default.
+ *
+ * On Chromium, cookies are read over CDP {@code Network.getCookies}, otherwise with
+ * {@code getCookies()}.
+ */
+class CookieProvider {
+    private static final boolean CACHE = Boolean.parseBoolean(System.getenv().getOrDefault("PERCY_COOKIE_CACHE", "false"));
+
+    // Key of the fingerprint in the serialized DOM
+    static final String FINGERPRINT_KEY = "percyCookieFingerprint";
+
+    // JavaScript expression for the fingerprint
+    static final String FINGERPRINT_JS =
+        "{ origin: location.origin, url: location.href, loadedAt: String(performance.timeOrigin), cookie: document.cookie }";
+
+    private final WebDriver driver;
+    private final boolean cache;
+    private final Cache<String, Entry> byOrigin = new Cache<>(32, Duration.ZERO);
+
+    CookieProvider(WebDriver driver) {
+        this(driver, CACHE);
+    }
+
+    CookieProvider(WebDriver driver, boolean cache) {
+        this.driver = driver;
+        this.cache = cache;
+    }
+
+    /**
+     * @param fingerprint The fingerprint returned with the serialized DOM, or null if there is none.
+     * @return Cookies of the current page.
+     */
+    Set<Cookie> cookies(Object fingerprint) {
+        MetricsRecorder metrics = MetricsRecorder.current();
+        long start = metrics.begin();
+        try {
+            if (!(fingerprint instanceof Map)) { return read(null); }
+
+            Map<?, ?> page = (Map<?, ?>) fingerprint;
+            // The page URL lets Chromium read the cookies over CDP, cached or not
+            if (!cache) { return read((String) page.get("url")); }
+
+            String origin = String.valueOf(page.get("origin"));
+            String key = page.get("loadedAt") + " " + page.get("cookie");
+            Entry cached = byOrigin.getIfPresent(origin);
+            if (cached != null && cached.fingerprint.equals(key)) { return cached.cookies; }
+
+            Set<Cookie> cookies = read((String) page.get("url"));
+            byOrigin.invalidate(origin);
+            byOrigin.get(origin, o -> new Entry(key, cookies));
+            return cookies;
+        } catch (Exception e) {
+            Percy.log("Cookie collection failed " + e.getMessage(), "debug");
+            return Collections.emptySet();
+        } finally {
+            metrics.end("cookies", start);
+        }
+    }
+
+    private Set<Cookie> read(String url) {
+        MetricsRecorder.current().command();
+        if (url != null && Cdp.supports(driver)) {
+            try {
+                Map<String, Object> params = new HashMap<>();
+                params.put("urls", Collections.singletonList(url));
+                return fromCdp((List<Map<String, Object>>) Cdp.execute(driver, "Network.getCookies", params).get("cookies"));
+            } catch (WebDriverException | ClassCastException | NullPointerException e) {
+                Percy.log("Reading cookies over CDP failed, using WebDriver: " + e.getMessage(), "debug");
+                MetricsRecorder.current().command();
+            }
+        }
+        return driver.manage().getCookies();
+    }
+
+    // CDP cookies as WebDriver cookies, so the payload is the same either way
+    static Set<Cookie> fromCdp(List<Map<String, Object>> cookies) {
+        Set<Cookie> result = new LinkedHashSet<>();
+        for (Map<String, Object> cookie : cookies) {
+            Cookie.Builder builder = new Cookie.Builder((String) cookie.get("name"), (String) cookie.get("value"))
+                .domain((String) cookie.get("domain"))
+                .path((String) cookie.get("path"))
+                .isSecure(Boolean.TRUE.equals(cookie.get("secure")))
+                .isHttpOnly(Boolean.TRUE.equals(cookie.get("httpOnly")));
+            Object expires = cookie.get("expires");
+            if (!Boolean.TRUE.equals(cookie.get("session")) && expires instanceof Number && ((Number) expires).doubleValue() > 0) {
+                builder.expiresOn(new Date((long) (((Number) expires).doubleValue() * 1000)));
+            }
+            if (cookie.get("sameSite") instanceof String) {
+                builder.sameSite((String) cookie.get("sameSite"));
+            }
+            result.add(builder.build());
+        }
+        return result;
+    }
+
+    // Cookies read for one fingerprint of an origin
+    private static final class Entry {
+        final String fingerprint;
+        final Set<Cookie> cookies;
+
+        Entry(String fingerprint, Set<Cookie> cookies) {
+            this.fingerprint = fingerprint;
+            this.cookies = Collections.unmodifiableSet(cookies);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package io.percy.selenium;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Package-private UTF-8 buffer for a serialized DOM that is pulled from the browser in chunks.
+ *
+ * Up to {@code PERCY_DOM_SPILL_THRESHOLD} bytes are kept on the heap. Past that the buffer
+ * moves to a temp file, so heap use stays flat however large the DOM is. {@link #close()}
+ * deletes the file.
+ */
+class DomBuffer implements Closeable {
+    // Bytes kept in memory before spilling to a temp file
+    private static final int SPILL_THRESHOLD = Settings.intValue("PERCY_DOM_SPILL_THRESHOLD", 4194304, 0);
+
+    private final int spillThreshold;
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private Path file;
+    private OutputStream fileStream;
+    private long length = 0;
+
+    DomBuffer() {
+        this(SPILL_THRESHOLD);
+    }
+
+    DomBuffer(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * Append a chunk of the serialized DOM.
+     */
+    void append(String chunk) throws IOException {
+        byte[] bytes = chunk.getBytes(StandardCharsets.UTF_8);
+        if (file == null && memory.size() + bytes.length > spillThreshold) {
+            spill();
+        }
+
+        if (file == null) {
+            memory.write(bytes);
+        } else {
+            fileStream.write(bytes);
+        }
+        length += bytes.length;
+    }
+
+    /**
+     * @return Size of the buffered DOM in bytes.
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * @return true if the buffer has moved to a temp file.
+     */
+    boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Copy the buffered DOM to a stream. Can be called more than once.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        if (file == null) {
+            memory.writeTo(out);
+        } else {
+            fileStream.flush();
+            Files.copy(file, out);
+        }
+    }
+
+    @Override
+    public void close() {
+        memory = new ByteArrayOutputStream();
+        if (file == null) { return; }
+
+        try {
+            fileStream.close();
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            Percy.log("Could not delete " + file + ": " + ex, "debug");
+        }
+        file = null;
+    }
+
+    private void spill() throws IOException {
+        file = Files.createTempFile("percy-dom", ".json");
+        file.toFile().deleteOnExit();
+        fileStream = new BufferedOutputStream(Files.newOutputStream(file));
+        memory.writeTo(fileStream);
+        memory = new ByteArrayOutputStream();
+    }
+}
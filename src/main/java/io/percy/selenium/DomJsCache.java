@@ -0,0 +1,138 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Package-private, process-wide cache of the PercyDOM script served at {@code /percy/dom.js},
+ * keyed by the {@code x-percy-core-version} reported by the healthcheck.
+ *
+ * When {@code PERCY_DOM_CACHE_DIR} is set the script is also written there, so other JVMs
+ * (such as forked Surefire workers) read it from disk instead of downloading it. When the CLI
+ * version changes the script is revalidated with a conditional GET.
+ */
+class DomJsCache {
+    // Optional directory shared between JVMs
+    private static final String CACHE_DIR = System.getenv().getOrDefault("PERCY_DOM_CACHE_DIR", "");
+
+    private static final ConcurrentHashMap<String, DomJsCache> INSTANCES = new ConcurrentHashMap<>();
+
+    private final String address;
+    private final Path cacheDir;
+    private volatile Entry entry;
+
+    DomJsCache(String address, Path cacheDir) {
+        this.address = address;
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @return The shared cache for a CLI server.
+     */
+    static DomJsCache forServer(PercyServerInfo serverInfo) {
+        return INSTANCES.computeIfAbsent(serverInfo.getAddress(),
+            address -> new DomJsCache(address, CACHE_DIR.isEmpty() ? null : Paths.get(CACHE_DIR)));
+    }
+
+    /**
+     * @param version The CLI core version the script must match, or null if unknown.
+     * @return The PercyDOM script.
+     */
+    String get(String version) throws IOException {
+        String key = version == null ? "unknown" : version;
+        Entry current = entry;
+        if (current != null && current.version.equals(key)) { return current.script; }
+
+        synchronized (this) {
+            current = entry;
+            if (current != null && current.version.equals(key)) { return current.script; }
+
+            // Without a version there is nothing to tell a stale file on disk from a fresh one
+            boolean persist = cacheDir != null && version != null;
+            Entry loaded = persist ? readFromDisk(key) : null;
+            if (loaded == null) {
+                loaded = download(key, current);
+                if (persist) { writeToDisk(loaded); }
+            }
+            entry = loaded;
+            return loaded.script;
+        }
+    }
+
+    // Fetch dom.js, sending the validators of the previous version's script if there is one
+    private Entry download(String version, Entry previous) throws IOException {
+        PercyTransport.Request request = PercyTransport.Request.get("/percy/dom.js");
+        if (previous != null && previous.etag != null) {
+            request.header("If-None-Match", previous.etag);
+        }
+        if (previous != null && previous.lastModified != null) {
+            request.header("If-Modified-Since", previous.lastModified);
+        }
+
+        PercyTransport.Response response = CircuitBreaker.forAddress(address).send(request);
+        int statusCode = response.getStatus();
+
+        if (statusCode == 304 && previous != null) {
+            Percy.log("dom.js unchanged for Percy CLI " + version, "debug");
+            return new Entry(version, previous.script, previous.etag, previous.lastModified);
+        }
+        if (statusCode != 200){
+            throw new RuntimeException("Failed with HTTP error code: " + statusCode);
+        }
+
+        return new Entry(version, response.bodyAsString(), response.header("ETag"), response.header("Last-Modified"));
+    }
+
+    private Entry readFromDisk(String version) {
+        Path file = cacheDir.resolve(fileName(version));
+        if (!Files.isRegularFile(file)) { return null; }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            String script = StandardCharsets.UTF_8.decode(buffer).toString();
+            return script.isEmpty() ? null : new Entry(version, script, null, null);
+        } catch (IOException ex) {
+            Percy.log("Could not read cached dom.js " + file + ": " + ex, "debug");
+            return null;
+        }
+    }
+
+    private void writeToDisk(Entry loaded) {
+        try {
+            Files.createDirectories(cacheDir);
+            // Write to a temp file and move it in place so other JVMs never see a partial script
+            Path temp = Files.createTempFile(cacheDir, "percy-dom", ".tmp");
+            Files.write(temp, loaded.script.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, cacheDir.resolve(fileName(loaded.version)), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Percy.log("Could not cache dom.js in " + cacheDir + ": " + ex, "debug");
+        }
+    }
+
+    private static String fileName(String version) {
+        return "percy-dom-" + version.replaceAll("[^A-Za-z0-9._-]", "_") + ".js";
+    }
+
+    // One version of the script and the validators it was served with
+    private static final class Entry {
+        final String version;
+        final String script;
+        final String etag;
+        final String lastModified;
+
+        Entry(String version, String script, String etag, String lastModified) {
+            this.version = version;
+            this.script = script;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -3,34 +3,60 @@ package io.percy.selenium;
 import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.WebDriver;
 
-import java.lang.reflect.Field;
+import java.net.URL;
+import java.time.Duration;
 import java.util.*;
 
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.openqa.selenium.remote.CommandExecutor;
-import org.openqa.selenium.remote.HttpCommandExecutor;
 import org.openqa.selenium.remote.RemoteWebDriver;
 
 
 public class DriverMetadata {
+    // Bounds for the per-session caches, so long runs with many sessions don't grow them forever
+    private static final int SESSION_CACHE_SIZE = Settings.intValue("PERCY_SESSION_CACHE_SIZE", 1000, 1);
+    private static final Duration SESSION_CACHE_TTL = Duration.ofSeconds(Settings.longValue("PERCY_SESSION_CACHE_TTL", 3600, 0));
+
+    // Keyed by session id
+    private static final Cache<String, ConcurrentHashMap<String, String>> CAPABILITIES = new Cache<>(SESSION_CACHE_SIZE, SESSION_CACHE_TTL);
+    private static final Cache<String, String> COMMAND_EXECUTOR_URLS = new Cache<>(SESSION_CACHE_SIZE, SESSION_CACHE_TTL);
 
     private String sessionId;
     private WebDriver driver;
-    private ConcurrentHashMap<String, String> capabilities = new ConcurrentHashMap<String, String>();
     private final List<String> capsNeeded = new ArrayList<>(Arrays.asList("browserName", "platform", "platformName", "version", "osVersion", "proxy", "deviceName"));
     public DriverMetadata(WebDriver driver) {
         this.driver = driver;
         this.sessionId = ((RemoteWebDriver) driver).getSessionId().toString();
     }
 
+    /**
+     * Drop everything cached for a session, e.g. once the driver has quit.
+     */
+    public static void invalidateSession(String sessionId) {
+        CAPABILITIES.invalidate(sessionId);
+        COMMAND_EXECUTOR_URLS.invalidate(sessionId);
+    }
+
+    /**
+     * @return The capabilities cache, for its hit, miss and eviction counts.
+     */
+    public static Cache<String, ConcurrentHashMap<String, String>> getCapabilitiesCache() {
+        return CAPABILITIES;
+    }
+
+    /**
+     * @return The command executor URL cache, for its hit, miss and eviction counts.
+     */
+    public static Cache<String, String> getCommandExecutorUrlCache() {
+        return COMMAND_EXECUTOR_URLS;
+    }
+
     public  String getSessionId() {
         return this.sessionId;
     }
 
     public ConcurrentHashMap<String, String> getCapabilities() {
-        String key = "capabilities_" + this.sessionId;
-        if (Cache.CACHE_MAP.get(key) == null) {
+        return CAPABILITIES.get(sessionId, id -> {
             Capabilities caps = ((RemoteWebDriver) driver).getCapabilities();
             ConcurrentHashMap<String, String> capabilities = new ConcurrentHashMap<String, String>();
 
@@ -41,32 +67,18 @@ public class DriverMetadata {
                     capabilities.put(cap, caps.getCapability(cap).toString());
                 }
             }
-            Cache.CACHE_MAP.put(key, capabilities);
-        }
-        return (ConcurrentHashMap<String, String>) Cache.CACHE_MAP.get(key);
+            return capabilities;
+        });
     }
 
+    /**
+     * @return The remote server address, or null if it could not be found.
+     */
     public String getCommandExecutorUrl() {
-        String key = "commandExecutorUrl_" + this.sessionId;
-        if (Cache.CACHE_MAP.get(key) == null) {
-            CommandExecutor executor = ((RemoteWebDriver) driver).getCommandExecutor();
-
-            // Get HttpCommandExecutor From TracedCommandExecutor
-            if (executor.getClass().toString().contains("TracedCommandExecutor")) {
-                Class className = executor.getClass();
-                try {
-                    Field field = className.getDeclaredField("delegate");
-                    // make private field accessible
-                    field.setAccessible(true);
-                    executor = (HttpCommandExecutor) field.get(executor);
-                } catch (Exception e) {
-                    Percy.log(e.toString());
-                    return e.toString();
-                }
-            }
-            String remoteWebAddress = ((HttpCommandExecutor) executor).getAddressOfRemoteServer().toString();
-            Cache.CACHE_MAP.put(key, remoteWebAddress);
-        }
-        return (String) Cache.CACHE_MAP.get(key);
+        // Null results are not cached, so a failed lookup is retried next time
+        return COMMAND_EXECUTOR_URLS.get(sessionId, id -> {
+            URL address = CommandExecutorUnwrapper.addressOf(((RemoteWebDriver) driver).getCommandExecutor());
+            return address == null ? null : address.toString();
+        });
     }
 }
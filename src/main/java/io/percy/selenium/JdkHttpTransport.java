@@ -0,0 +1,103 @@
+package io.percy.selenium;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Package-private transport over {@code java.net.http.HttpClient}, compiled for Java 11.
+ *
+ * The CLI listens on cleartext {@code http://}, where HTTP/2 could only be reached by an h2c
+ * Upgrade that request bodies never get, so it is spoken to over HTTP/1.1. HTTP/2 is used only
+ * for an {@code https://} address, where TLS negotiates it. Small bodies are sent from memory; large ones, such as a spilled DOM, are streamed through a pipe
+ * so they are never held on the heap.
+ */
+class JdkHttpTransport implements PercyTransport {
+    // Bodies up to this size are buffered instead of piped
+    private static final long BUFFER_LIMIT = 1024 * 1024;
+
+    // Writes large request bodies into their pipes
+    private static final ExecutorService WRITERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "percy-transport-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String address;
+    private final HttpClient client;
+
+    JdkHttpTransport(String address) {
+        this.address = address;
+        this.client = HttpClient.newBuilder()
+            .version(address.startsWith("https:") ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+            .connectTimeout(PercyHttpClient.timeout("/percy/healthcheck"))
+            .build();
+    }
+
+    @Override
+    public Response send(Request request) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(address + request.getPath()))
+            .timeout(request.getTimeout());
+        request.getHeaders().forEach(builder::setHeader);
+
+        HttpEntity body = request.getBody();
+        if (body == null) {
+            builder.GET();
+        } else {
+            setHeader(builder, body.getContentType());
+            setHeader(builder, body.getContentEncoding());
+            builder.POST(publisher(body));
+        }
+
+        try {
+            HttpResponse<byte[]> response = client.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+            return new Response(response.statusCode(), response.headers().map(), response.body());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.toString());
+        }
+    }
+
+    private static HttpRequest.BodyPublisher publisher(HttpEntity body) throws IOException {
+        long length = body.getContentLength();
+        if (length >= 0 && length <= BUFFER_LIMIT) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) length);
+            body.writeTo(buffer);
+            return HttpRequest.BodyPublishers.ofByteArray(buffer.toByteArray());
+        }
+
+        HttpRequest.BodyPublisher piped = HttpRequest.BodyPublishers.ofInputStream(() -> {
+            PipedInputStream in = new PipedInputStream(64 * 1024);
+            try {
+                PipedOutputStream out = new PipedOutputStream(in);
+                WRITERS.execute(() -> {
+                    try (PipedOutputStream stream = out) {
+                        body.writeTo(stream);
+                    } catch (IOException ex) {
+                        Percy.log("Could not stream request body: " + ex, "debug");
+                    }
+                });
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return in;
+        });
+        // A known length is sent as Content-Length, otherwise the body is chunked
+        return length >= 0 ? HttpRequest.BodyPublishers.fromPublisher(piped, length) : piped;
+    }
+
+    private static void setHeader(HttpRequest.Builder builder, Header header) {
+        if (header != null) { builder.setHeader(header.getName(), header.getValue()); }
+    }
+}
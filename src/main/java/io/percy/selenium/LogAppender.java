@@ -0,0 +1,159 @@
+package io.percy.selenium;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Package-private appender that forwards {@link Percy#log(String, String)} records to the CLI's
+ * {@code /percy/log} endpoint from a background thread.
+ *
+ * Appending never blocks: records go into a lock-free bounded buffer, and are dropped once it is
+ * full. The CLI accepts one record per request, so each batch is sent as consecutive requests
+ * over a pooled keep-alive connection. After a failed request the appender stops sending for a
+ * few seconds and discards what is buffered, since the messages are already on stdout.
+ *
+ * There is one appender per CLI address, so each {@link Percy} logs to the CLI it snapshots to.
+ */
+class LogAppender {
+    // Records buffered while the CLI is slow
+    private static final int BUFFER_SIZE = Settings.intValue("PERCY_LOG_BUFFER_SIZE", 1000, 1);
+
+    // Records sent per wake-up, and the buffer size that wakes the sender early
+    private static final int BATCH_SIZE = 50;
+
+    private static final long FLUSH_INTERVAL_MS = 200;
+
+    // Pause after a failed request, so a stopped CLI isn't hit on every batch
+    private static final long RETRY_AFTER_MS = 5000;
+
+    // Created after the settings above, since reading an invalid one logs; see forAddress
+    private static final ConcurrentHashMap<String, LogAppender> INSTANCES = new ConcurrentHashMap<>();
+
+    private final String address;
+    private final boolean debug;
+    private final int bufferSize;
+
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile Thread worker;
+    private volatile long pausedUntil = 0;
+
+    LogAppender(String address, boolean debug) {
+        this(address, debug, BUFFER_SIZE);
+    }
+
+    LogAppender(String address, boolean debug, int bufferSize) {
+        this.address = address;
+        this.debug = debug;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @return The appender for a CLI address, shared by every caller, or null while this class
+     *         is still loading and logs an invalid setting.
+     */
+    static LogAppender forAddress(String address) {
+        if (INSTANCES == null) { return null; }
+        return INSTANCES.computeIfAbsent(address, key -> new LogAppender(key, Percy.PERCY_DEBUG));
+    }
+
+    /**
+     * Buffer a record for the CLI. Returns immediately.
+     */
+    void append(String message, String level) {
+        if (size.incrementAndGet() > bufferSize) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+
+        JSONObject record = new JSONObject();
+        record.put("message", message);
+        record.put("level", level);
+        queue.offer(record.toString());
+
+        start();
+        if (size.get() >= BATCH_SIZE) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * @return Number of records dropped because the buffer was full.
+     */
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Send everything buffered so far.
+     *
+     * @return true if the buffer was emptied before the deadline.
+     */
+    boolean flush(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (size.get() > 0) {
+            if (System.nanoTime() > deadline) { return false; }
+            sendBatch();
+        }
+        return true;
+    }
+
+    private void start() {
+        if (!started.compareAndSet(false, true)) { return; }
+
+        Thread thread = new Thread(this::run, "percy-log");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(Duration.ofSeconds(1)), "percy-log-shutdown"));
+    }
+
+    private void run() {
+        while (true) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS));
+            while (size.get() > 0 && sendBatch() == BATCH_SIZE) {
+                // Keep going while the buffer holds full batches
+            }
+        }
+    }
+
+    // Drain up to one batch and POST it. Returns the number of records taken from the buffer.
+    private int sendBatch() {
+        int taken = 0;
+        String record;
+        while (taken < BATCH_SIZE && (record = queue.poll()) != null) {
+            size.decrementAndGet();
+            taken++;
+
+            if (System.currentTimeMillis() < pausedUntil) { continue; }
+            try {
+                post(record);
+            } catch (Exception ex) {
+                pausedUntil = System.currentTimeMillis() + RETRY_AFTER_MS;
+                // Percy.log would feed this record straight back into the appender
+                if (debug) { System.out.println("Sending log to CLI Failed " + ex.toString()); }
+            }
+        }
+        return taken;
+    }
+
+    // Sent past the circuit breaker: failed log posts back off on their own and must not pause snapshots
+    private void post(String record) throws Exception {
+        PercyTransport.forAddress(address).send(PercyTransport.Request.post("/percy/log",
+            new StringEntity(record, ContentType.APPLICATION_JSON)));
+    }
+}
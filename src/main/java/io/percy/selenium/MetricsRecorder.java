@@ -0,0 +1,114 @@
+package io.percy.selenium;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Package-private collector for the {@link SnapshotMetrics} of the snapshot running on the
+ * current thread.
+ *
+ * Code deep in the capture path records into {@link #current()} without having the recorder
+ * passed in. When no listener is registered every recorder is a shared no-op, so nothing is
+ * timed or allocated.
+ */
+class MetricsRecorder {
+    static final CopyOnWriteArrayList<PercyMetricsListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static final ThreadLocal<MetricsRecorder> CURRENT = new ThreadLocal<>();
+    private static final MetricsRecorder NOOP = new MetricsRecorder(null, null);
+
+    private final String kind;
+    private final String name;
+    private final long startedAt;
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+    private long payloadBytes = 0;
+    private int widthCount = 0;
+    private int commandCount = 0;
+    private int responseStatus = 0;
+
+    private MetricsRecorder(String kind, String name) {
+        this.kind = kind;
+        this.name = name;
+        this.startedAt = System.nanoTime();
+    }
+
+    /**
+     * Start recording a snapshot on this thread.
+     */
+    static MetricsRecorder start(String kind, String name) {
+        if (LISTENERS.isEmpty()) { return NOOP; }
+
+        MetricsRecorder recorder = new MetricsRecorder(kind, name);
+        CURRENT.set(recorder);
+        return recorder;
+    }
+
+    /**
+     * @return The recorder of the snapshot running on this thread, or a no-op.
+     */
+    static MetricsRecorder current() {
+        MetricsRecorder recorder = CURRENT.get();
+        return recorder == null ? NOOP : recorder;
+    }
+
+    /**
+     * Make this the current recorder on another thread, e.g. the upload thread.
+     */
+    void attach() {
+        if (this != NOOP) { CURRENT.set(this); }
+    }
+
+    /**
+     * Stop being the current recorder on this thread.
+     */
+    void detach() {
+        if (CURRENT.get() == this) { CURRENT.remove(); }
+    }
+
+    /**
+     * @return A start time to pass to {@link #end(String, long)}.
+     */
+    long begin() {
+        return this == NOOP ? 0 : System.nanoTime();
+    }
+
+    void end(String phase, long begin) {
+        if (this == NOOP) { return; }
+        phases.merge(phase, System.nanoTime() - begin, Long::sum);
+    }
+
+    void command() {
+        if (this != NOOP) { commandCount++; }
+    }
+
+    void widths(int count) {
+        if (this != NOOP) { widthCount = count; }
+    }
+
+    void payloadBytes(long bytes) {
+        if (this != NOOP) { payloadBytes += bytes; }
+    }
+
+    void responseStatus(int status) {
+        if (this != NOOP) { responseStatus = status; }
+    }
+
+    /**
+     * Detach and send the metrics to every listener.
+     */
+    void finish() {
+        if (this == NOOP) { return; }
+        detach();
+
+        SnapshotMetrics metrics = new SnapshotMetrics(kind, name, phases, System.nanoTime() - startedAt,
+            payloadBytes, widthCount, commandCount, responseStatus);
+        for (PercyMetricsListener listener : LISTENERS) {
+            try {
+                listener.onSnapshot(metrics);
+            } catch (RuntimeException e) {
+                Percy.log("Metrics listener failed: " + e, "debug");
+            }
+        }
+    }
+}
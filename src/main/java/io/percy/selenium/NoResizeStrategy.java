@@ -0,0 +1,16 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Package-private {@link ResizeStrategy} that never changes the viewport. Responsive capture is
+ * skipped with it, see {@link Percy}.
+ */
+class NoResizeStrategy implements ResizeStrategy {
+    static final NoResizeStrategy INSTANCE = new NoResizeStrategy();
+
+    @Override
+    public boolean resize(WebDriver driver, int width, int height) {
+        return false;
+    }
+}
@@ -1,30 +1,23 @@
 package io.percy.selenium;
 
 import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.util.EntityUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
 import org.json.JSONObject;
 import org.json.JSONArray;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
 
 import javax.annotation.Nullable;
 
 import org.openqa.selenium.*;
-import org.openqa.selenium.chrome.ChromeDriver;
 import org.openqa.selenium.remote.*;
-import org.openqa.selenium.support.ui.ExpectedCondition;
-import org.openqa.selenium.support.ui.WebDriverWait;
 
 import java.util.stream.Collectors;
 
@@ -33,35 +26,111 @@ import javax.xml.xpath.XPath;
 
 /**
  * Percy client for visual testing.
+ *
+ * A Percy instance is bound to one driver and is safe to use from several threads. Instances
+ * are cheap: the healthcheck, the dom.js cache and the HTTP connection pool are shared by every
+ * instance in the JVM. For parallel test execution, create one instance per driver, or get
+ * them from a {@link PercyRegistry}.
  */
 public class Percy {
     // Selenium WebDriver we'll use for accessing the web pages to snapshot.
-    private WebDriver driver;
-
-    // The JavaScript contained in dom.js
-    private String domJs = "";
+    private final WebDriver driver;
 
     // Maybe get the CLI server address
-    private static String PERCY_SERVER_ADDRESS = System.getenv().getOrDefault("PERCY_SERVER_ADDRESS", "http://localhost:5338");
+    private static final String PERCY_SERVER_ADDRESS = System.getenv().getOrDefault("PERCY_SERVER_ADDRESS", "http://localhost:5338");
 
     // Determine if we're debug logging
-    private static boolean PERCY_DEBUG = System.getenv().getOrDefault("PERCY_LOGLEVEL", "info").equals("debug");
+    static final boolean PERCY_DEBUG = System.getenv().getOrDefault("PERCY_LOGLEVEL", "info").equals("debug");
+
+    // for logging; set up before the settings below, since an invalid one is logged
+    private static final String LABEL = "[\u001b[35m" + (PERCY_DEBUG ? "percy:java" : "percy") + "\u001b[39m]";
+
+    // How PercyDOM gets into the page: `lazy` sends dom.js only to pages that don't have it yet,
+    // `always` injects it in a separate call before every snapshot
+    private static final String PERCY_DOM_INJECTION = System.getenv().getOrDefault("PERCY_DOM_INJECTION", "lazy");
+
+    // Returned by the capture script when the page has no PercyDOM yet
+    private static final String PERCY_DOM_MISSING = "__percyDOMMissing";
+
+    // Characters of serialized DOM read per WebDriver call, 0 to return the DOM in one response
+    private static final int DOM_CHUNK_SIZE = Settings.intValue("PERCY_DOM_CHUNK_SIZE", 0, 0);
+
+    // Serializes into window.__percyDomPayload as JSON with its closing brace removed, returns its length
+    private static final String SERIALIZE_TO_PAGE_JS_END =
+        "window.__percyDomPayload = json.slice(0, -1);\n" +
+        "return [window.__percyDomPayload.length, json.length > 2, " + CookieProvider.FINGERPRINT_JS + "];";
+
+    // Returns the next chunk, never splitting a surrogate pair, and cleans up after the last one
+    private static final String READ_CHUNK_JS =
+        "var s = window.__percyDomPayload, start = arguments[0], end = Math.min(start + arguments[1], s.length);\n" +
+        "var c = s.charCodeAt(end - 1);\n" +
+        "if (end < s.length && c >= 0xD800 && c <= 0xDBFF) { end--; }\n" +
+        "if (end >= s.length) { delete window.__percyDomPayload; }\n" +
+        "return s.substring(start, end);";
+
+    private static final String RESONSIVE_CAPTURE_SLEEP_TIME = System.getenv().getOrDefault("RESONSIVE_CAPTURE_SLEEP_TIME", "");
+
+    // How responsive capture changes the viewport width: `auto`, `cdp`, `window` or `none`
+    private static final String RESIZE_STRATEGY = System.getenv().getOrDefault("PERCY_RESIZE_STRATEGY", "auto");
+
+    // How responsive capture waits for the page after changing width: `none`, `sleep:<ms>` or `frames:<count>`
+    private static final String RESPONSIVE_SETTLE = System.getenv().getOrDefault("PERCY_RESPONSIVE_SETTLE", "");
+
+    // Longest time the `frames` settle strategy waits for a quiet page
+    private static final Duration SETTLE_TIMEOUT = Duration.ofMillis(Settings.longValue("PERCY_RESPONSIVE_SETTLE_TIMEOUT_MS", 2000, 0));
+
+    // Parsed once, not for every instance
+    private static final ResizeStrategy DEFAULT_RESIZE_STRATEGY = resizeStrategyFromEnv(RESIZE_STRATEGY);
+    private static final SettleStrategy DEFAULT_SETTLE_STRATEGY = settleStrategyFromEnv(RESPONSIVE_SETTLE, RESONSIVE_CAPTURE_SLEEP_TIME);
+
+    // Resolves once window.resizeCount reaches the expected count, or after a second
+    private static final String WAIT_FOR_RESIZE_JS =
+        "var done = arguments[arguments.length - 1], count = arguments[0], start = Date.now();\n" +
+        "(function check() {\n" +
+        "  if (window.resizeCount === count || Date.now() - start > 1000) { return done(window.resizeCount); }\n" +
+        "  setTimeout(check, 10);\n" +
+        "})();";
+
+    // How responsive DOM is captured: `resize` resizes the current window for each width,
+    // `windows` opens a window per width so the browser loads them concurrently
+    private static final String RESPONSIVE_CAPTURE_MODE = System.getenv().getOrDefault("PERCY_RESPONSIVE_CAPTURE_MODE", "resize");
+
+    static {
+        // Writes a metrics summary at exit when PERCY_METRICS_FILE is set
+        PercyMetricsSummary.installFromEnv();
+    }
+
+    // Address of the Percy CLI this instance talks to
+    private final String serverAddress;
+
+    // Healthcheck result shared by every Percy instance talking to the same CLI
+    private final PercyServerInfo serverInfo;
+
+    private final CookieProvider cookieProvider;
 
-    private static String RESONSIVE_CAPTURE_SLEEP_TIME = System.getenv().getOrDefault("RESONSIVE_CAPTURE_SLEEP_TIME", "");
+    // Servers that answered 404 on the batch endpoint
+    private static final Set<String> BATCH_UNSUPPORTED = ConcurrentHashMap.newKeySet();
 
-    // for logging
-    private static String LABEL = "[\u001b[35m" + (PERCY_DEBUG ? "percy:java" : "percy") + "\u001b[39m]";
+    private static final String BATCH_PATH = "/percy/snapshot/batch";
 
-    // Type of session automate/web
-    protected String sessionType = null;
-    protected JSONObject eligibleWidths;
-    private JSONObject cliConfig;
+    // Type of session automate/web and eligible widths. When set, these override the
+    // values reported by the CLI healthcheck.
+    protected volatile String sessionType = null;
+    protected volatile JSONObject eligibleWidths;
 
-    // Is the Percy server running or not
-    private boolean isPercyEnabled = healthcheck();
+    // Changes the viewport width during responsive capture, null to probe the driver
+    private volatile ResizeStrategy resizeStrategy = DEFAULT_RESIZE_STRATEGY;
+    private volatile boolean noResizeWarned = false;
+
+    // Waits for the page to settle before each responsive capture
+    private volatile SettleStrategy settleStrategy = DEFAULT_SETTLE_STRATEGY;
+
+    // The breaker's recovery count when this instance could no longer capture snapshots, e.g.
+    // dom.js failed to load. Cleared when the breaker recovers from a CLI outage.
+    private volatile int disabledAt = -1;
 
     // Environment information like Java, browser, & SDK versions
-    private Environment env;
+    private final Environment env;
 
     // Fetch following properties from capabilities
     private final List<String> capsNeeded = new ArrayList<>(Arrays.asList("browserName", "platform", "platformName", "version", "osVersion", "proxy", "deviceName"));
@@ -74,8 +143,54 @@ public class Percy {
      *               session to snapshot.
      */
     public Percy(WebDriver driver) {
+        this(driver, PERCY_SERVER_ADDRESS);
+    }
+
+    /**
+     * @param driver        The Selenium WebDriver object that will hold the browser
+     *                      session to snapshot.
+     * @param serverAddress Address of the Percy CLI, instead of {@code PERCY_SERVER_ADDRESS}.
+     */
+    public Percy(WebDriver driver, String serverAddress) {
         this.driver = driver;
+        this.serverAddress = serverAddress;
+        this.serverInfo = PercyServerInfo.forAddress(serverAddress);
+        this.cookieProvider = new CookieProvider(driver);
         this.env = new Environment(driver);
+        // Start the healthcheck now so it overlaps with page loads; the first snapshot waits for it
+        this.serverInfo.prefetch();
+    }
+
+    /**
+     * Set how responsive capture waits for the page to settle at each width.
+     *
+     * @param settleStrategy The strategy, e.g. {@link SettleStrategy#quietFrames(int, Duration)}.
+     */
+    public void setSettleStrategy(SettleStrategy settleStrategy) {
+        this.settleStrategy = settleStrategy == null ? SettleStrategy.none() : settleStrategy;
+    }
+
+    /**
+     * Set how responsive capture changes the viewport width.
+     *
+     * @param resizeStrategy The strategy, or null to pick one for the driver.
+     */
+    public void setResizeStrategy(ResizeStrategy resizeStrategy) {
+        this.resizeStrategy = resizeStrategy;
+    }
+
+    // Is the Percy server running and can this instance still capture snapshots
+    private boolean isPercyEnabled() {
+        CircuitBreaker breaker = CircuitBreaker.forAddress(serverAddress);
+        return breaker.isClosed() && disabledAt != breaker.recoveries() && serverInfo.isEnabled();
+    }
+
+    private String getSessionType() {
+        return sessionType != null ? sessionType : serverInfo.getSessionType();
+    }
+
+    private JSONObject getEligibleWidths() {
+        return eligibleWidths != null ? eligibleWidths : serverInfo.getEligibleWidths();
     }
 
     /**
@@ -232,22 +347,23 @@ public class Percy {
     }
 
     public JSONObject snapshot(String name, @Nullable List<Integer> widths, Integer minHeight, boolean enableJavaScript, String percyCSS, String scope, @Nullable Boolean sync, Boolean responsiveSnapshotCapture) {
-        if (!isPercyEnabled) { return null; }
-
-        Map<String, Object> domSnapshot = null;
-        Map<String, Object> options = new HashMap<String, Object>();
-        options.put("widths", widths);
-        options.put("minHeight", minHeight);
-        options.put("enableJavaScript", enableJavaScript);
-        options.put("percyCSS", percyCSS);
-        options.put("scope", scope);
-        options.put("sync", sync);
-        options.put("responsiveSnapshotCapture", responsiveSnapshotCapture);
+        if (!isPercyEnabled()) { return null; }
+
+        SnapshotOptions options = SnapshotOptions.builder()
+            .widths(widths)
+            .minHeight(minHeight)
+            .enableJavaScript(enableJavaScript)
+            .percyCSS(percyCSS)
+            .scope(scope)
+            .sync(sync)
+            .responsiveSnapshotCapture(responsiveSnapshotCapture)
+            .build();
 
         return snapshot(name, options);
     }
 
-    private boolean isCaptureResponsiveDOM(Map<String, Object> options) {
+    private boolean isCaptureResponsiveDOM(SnapshotOptions options) {
+        JSONObject cliConfig = serverInfo.getCliConfig();
         if (cliConfig.has("percy") && !cliConfig.isNull("percy")) {
             JSONObject percyProperty = cliConfig.getJSONObject("percy");
 
@@ -257,41 +373,382 @@ public class Percy {
         }
 
         boolean responsiveSnapshotCaptureCLI = false;
-        if (eligibleWidths == null) { return false; }
+        if (getEligibleWidths() == null) { return false; }
         if (cliConfig.getJSONObject("snapshot").has("responsiveSnapshotCapture")) {
             responsiveSnapshotCaptureCLI = cliConfig.getJSONObject("snapshot").getBoolean("responsiveSnapshotCapture");
         }
-        Object responsiveSnapshotCaptureSDK = options.get("responsiveSnapshotCapture");
 
-        return (responsiveSnapshotCaptureSDK != null && (boolean) responsiveSnapshotCaptureSDK) || responsiveSnapshotCaptureCLI;
+        if (!options.isResponsiveSnapshotCapture() && !responsiveSnapshotCaptureCLI) { return false; }
+
+        // Every width would be captured at the current size, so capture once instead
+        if (resizeStrategy instanceof NoResizeStrategy) {
+            if (!noResizeWarned) {
+                noResizeWarned = true;
+                log(serverAddress, "responsiveSnapshotCapture is ignored with the `none` resize strategy, capturing at the current width", "warn");
+            }
+            return false;
+        }
+        return true;
     }
 
     public JSONObject snapshot(String name, Map<String, Object> options) {
-        if (!isPercyEnabled) { return null; }
-        if ("automate".equals(sessionType)) { throw new RuntimeException("Invalid function call - snapshot(). Please use screenshot() function while using Percy with Automate. For more information on usage of PercyScreenshot, refer https://www.browserstack.com/docs/percy/integrate/functional-and-visual"); }
+        return snapshot(name, SnapshotOptions.fromMap(options));
+    }
+
+    /**
+     * Take a snapshot and upload it to Percy.
+     *
+     * @param name    The human-readable name of the snapshot. Should be unique.
+     * @param options Snapshot options, which can be shared between snapshots.
+     */
+    public JSONObject snapshot(String name, SnapshotOptions options) {
+        if (!isPercyEnabled()) { return null; }
+        if ("automate".equals(getSessionType())) { throw new RuntimeException("Invalid function call - snapshot(). Please use screenshot() function while using Percy with Automate. For more information on usage of PercyScreenshot, refer https://www.browserstack.com/docs/percy/integrate/functional-and-visual"); }
+
+        MetricsRecorder metrics = MetricsRecorder.start("snapshot", name);
+        try {
+            Object domSnapshot = captureDom(options);
+            metrics.command();
+            return postSnapshot(domSnapshot, name, driver.getCurrentUrl(), options);
+        } finally {
+            metrics.finish();
+        }
+    }
+
+    /**
+     * Capture a snapshot in the browser and upload it to Percy in the background.
+     *
+     * @param name The human-readable name of the snapshot. Should be unique.
+     * @return A future completed with the CLI response once the upload finishes.
+     */
+    public CompletableFuture<JSONObject> snapshotAsync(String name) {
+        return snapshotAsync(name, SnapshotOptions.empty());
+    }
+
+    /**
+     * Capture a snapshot in the browser and upload it to Percy in the background.
+     *
+     * The DOM is serialized before this method returns, so the page can be changed
+     * right away. Call {@link #flush()} or {@link #close()} at the end of the run to
+     * wait for pending uploads.
+     *
+     * @param name    The human-readable name of the snapshot. Should be unique.
+     * @param options Snapshot options, the same as {@link #snapshot(String, Map)}.
+     * @return A future completed with the CLI response once the upload finishes.
+     */
+    public CompletableFuture<JSONObject> snapshotAsync(String name, Map<String, Object> options) {
+        return snapshotAsync(name, SnapshotOptions.fromMap(options));
+    }
+
+    /**
+     * Capture a snapshot in the browser and upload it to Percy in the background.
+     *
+     * @param name    The human-readable name of the snapshot. Should be unique.
+     * @param options Snapshot options, which can be shared between snapshots.
+     * @return A future completed with the CLI response once the upload finishes.
+     */
+    public CompletableFuture<JSONObject> snapshotAsync(String name, SnapshotOptions options) {
+        if (!isPercyEnabled()) { return CompletableFuture.completedFuture(null); }
+        if ("automate".equals(getSessionType())) { throw new RuntimeException("Invalid function call - snapshotAsync(). Please use screenshot() function while using Percy with Automate. For more information on usage of PercyScreenshot, refer https://www.browserstack.com/docs/percy/integrate/functional-and-visual"); }
+
+        SnapshotRequest request = capture(name, options);
+        SnapshotUploader uploader = SnapshotUploader.getInstance();
+        if (uploader.isBatching()) {
+            return uploader.submitBatched(this, request, this::snapshotBatch);
+        }
+        return uploader.submit(name, () -> upload(request));
+    }
+
+    /**
+     * Capture a snapshot in {@code sync} mode without waiting for its comparison.
+     *
+     * @param name The human-readable name of the snapshot. Should be unique.
+     * @return A handle completed with the comparison result.
+     */
+    public SnapshotResult snapshotDeferred(String name) {
+        return snapshotDeferred(name, SnapshotOptions.empty());
+    }
+
+    /**
+     * Capture a snapshot in {@code sync} mode without waiting for its comparison.
+     *
+     * @param name    The human-readable name of the snapshot. Should be unique.
+     * @param options Snapshot options, the same as {@link #snapshot(String, Map)}.
+     * @return A handle completed with the comparison result.
+     */
+    public SnapshotResult snapshotDeferred(String name, Map<String, Object> options) {
+        return snapshotDeferred(name, SnapshotOptions.fromMap(options));
+    }
+
+    /**
+     * Capture a snapshot in {@code sync} mode without waiting for its comparison.
+     *
+     * The DOM is serialized before this method returns. The upload, which waits for the CLI to
+     * render and compare the snapshot, runs in the background, so the browser is free for the
+     * next test. The handle is also added to {@link SnapshotResults#getDefault()}.
+     *
+     * @param name    The human-readable name of the snapshot. Should be unique.
+     * @param options Snapshot options; {@code sync} is always on.
+     * @return A handle completed with the comparison result.
+     */
+    public SnapshotResult snapshotDeferred(String name, SnapshotOptions options) {
+        if (!isPercyEnabled()) { return SnapshotResult.skipped(name); }
+        if ("automate".equals(getSessionType())) { throw new RuntimeException("Invalid function call - snapshotDeferred(). Please use screenshot() function while using Percy with Automate. For more information on usage of PercyScreenshot, refer https://www.browserstack.com/docs/percy/integrate/functional-and-visual"); }
+
+        SnapshotRequest request = capture(name, options.toBuilder().sync(true).build());
+        SnapshotResult result = new SnapshotResult(name, SnapshotUploader.getSyncInstance().submit(name, () -> upload(request)));
+        SnapshotResults.getDefault().add(result);
+        return result;
+    }
+
+    /**
+     * Capture a snapshot in the browser without uploading it.
+     *
+     * @param name The human-readable name of the snapshot. Should be unique.
+     * @return The captured snapshot, to pass to {@link #snapshotBatch(List)}.
+     */
+    public SnapshotRequest capture(String name) {
+        return capture(name, SnapshotOptions.empty());
+    }
+
+    /**
+     * Capture a snapshot in the browser without uploading it. The DOM is serialized before
+     * this method returns, so the page can be changed right away.
+     *
+     * @param name    The human-readable name of the snapshot. Should be unique.
+     * @param options Snapshot options, the same as {@link #snapshot(String, Map)}.
+     * @return The captured snapshot, to pass to {@link #snapshotBatch(List)}.
+     */
+    public SnapshotRequest capture(String name, Map<String, Object> options) {
+        return capture(name, SnapshotOptions.fromMap(options));
+    }
+
+    /**
+     * Capture a snapshot in the browser without uploading it.
+     *
+     * @param name    The human-readable name of the snapshot. Should be unique.
+     * @param options Snapshot options, which can be shared between snapshots.
+     * @return The captured snapshot, to pass to {@link #snapshotBatch(List)}.
+     */
+    public SnapshotRequest capture(String name, SnapshotOptions options) {
+        if (!isPercyEnabled()) { return SnapshotRequest.skipped(name); }
+        if ("automate".equals(getSessionType())) { throw new RuntimeException("Invalid function call - capture(). Please use screenshot() function while using Percy with Automate. For more information on usage of PercyScreenshot, refer https://www.browserstack.com/docs/percy/integrate/functional-and-visual"); }
+
+        MetricsRecorder metrics = MetricsRecorder.start("snapshot", name);
+        try {
+            Object domSnapshot = captureDom(options);
+            metrics.command();
+            String url = driver.getCurrentUrl();
+            // The upload picks the metrics up, possibly on another thread
+            metrics.detach();
+            return new SnapshotRequest(name, url, options, domSnapshot, metrics, true);
+        } catch (RuntimeException e) {
+            metrics.finish();
+            throw e;
+        }
+    }
+
+    /**
+     * Upload captured snapshots to Percy in one request. Each snapshot succeeds or fails on its
+     * own; failures are logged with the snapshot's name. If the CLI has no batch endpoint, the
+     * snapshots are uploaded one by one.
+     *
+     * @param requests Snapshots from {@link #capture(String, Map)}, each uploaded at most once.
+     * @return The CLI response data for each request, in order, or null where it failed.
+     */
+    public List<JSONObject> snapshotBatch(List<SnapshotRequest> requests) {
+        List<JSONObject> results = new ArrayList<>(Collections.nCopies(requests.size(), (JSONObject) null));
+        List<SnapshotRequest> batch = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            SnapshotRequest request = requests.get(i);
+            if (!request.captured) { continue; }
+            if (!request.uploaded.compareAndSet(false, true)) {
+                log(serverAddress, "Snapshot " + request.getName() + " was already uploaded", "debug");
+                continue;
+            }
+            batch.add(request);
+            positions.add(i);
+        }
+
+        List<JSONObject> uploaded;
+        if (batch.size() > 1 && isPercyEnabled() && !BATCH_UNSUPPORTED.contains(serverAddress)) {
+            uploaded = postBatch(batch);
+        } else {
+            uploaded = new ArrayList<>();
+            for (SnapshotRequest request : batch) {
+                uploaded.add(upload(request));
+            }
+        }
+
+        for (int i = 0; i < positions.size(); i++) {
+            results.set(positions.get(i), uploaded.get(i));
+        }
+        return results;
+    }
+
+    // Upload one captured snapshot on its own
+    private JSONObject upload(SnapshotRequest request) {
+        request.metrics.attach();
+        try {
+            return postSnapshot(request.domSnapshot, request.getName(), request.getUrl(), request.getOptions());
+        } finally {
+            request.metrics.finish();
+        }
+    }
+
+    // POST snapshots to the batch endpoint, falling back to one request each if it is missing
+    private List<JSONObject> postBatch(List<SnapshotRequest> requests) {
+        List<JSONObject> results = new ArrayList<>(Collections.nCopies(requests.size(), (JSONObject) null));
+        boolean[] done = new boolean[requests.size()];
+        ResourceIndex resourceIndex = ResourceIndex.forServer(serverInfo);
+        List<ResourceIndex.Prepared> prepared = new ArrayList<>();
+        try {
+            List<HttpEntity> entities = new ArrayList<>();
+            for (SnapshotRequest request : requests) {
+                JSONObject json = snapshotJson(request.getName(), request.getUrl(), request.getOptions());
+                ResourceIndex.Prepared deduplicated = resourceIndex == null ? null : resourceIndex.prepare(request.domSnapshot);
+                prepared.add(deduplicated);
+                entities.add(snapshotEntity(json, deduplicated == null ? request.domSnapshot : deduplicated.domSnapshot));
+            }
+
+            long[] starts = new long[requests.size()];
+            for (int i = 0; i < requests.size(); i++) {
+                starts[i] = requests.get(i).metrics.begin();
+            }
+            PercyTransport.Response response = send(BATCH_PATH, new SnapshotBatchEntity(entities), "batch of " + requests.size(),
+                requests.stream().anyMatch(request -> Boolean.TRUE.equals(request.getOptions().asMap().get("sync"))));
+
+            if (response != null && response.getStatus() == 404) {
+                log(serverAddress, "Percy CLI has no batch endpoint, uploading snapshots one by one", "debug");
+                BATCH_UNSUPPORTED.add(serverAddress);
+                for (int i = 0; i < requests.size(); i++) {
+                    done[i] = true;
+                    results.set(i, upload(requests.get(i)));
+                }
+                return results;
+            }
+
+            JSONArray items = batchResults(response);
+            for (int i = 0; i < requests.size(); i++) {
+                SnapshotRequest request = requests.get(i);
+                JSONObject item = items == null ? null : items.optJSONObject(i);
+                request.metrics.attach();
+                request.metrics.end("upload", starts[i]);
+                request.metrics.payloadBytes(entities.get(i).getContentLength());
+                if (response != null) { request.metrics.responseStatus(response.getStatus()); }
+                request.metrics.detach();
+
+                if (item != null && item.optBoolean("success")) {
+                    results.set(i, item.optJSONObject("data"));
+                    if (prepared.get(i) != null) { resourceIndex.markSent(prepared.get(i)); }
+                } else if (item != null && item.has("missingResources") && resourceIndex != null) {
+                    // Resend on its own, with the missing resources in full
+                    resourceIndex.invalidateMissing(item);
+                    done[i] = true;
+                    results.set(i, upload(request));
+                } else if (response != null) {
+                    log(serverAddress, "Could not post snapshot " + request.getName() + (item == null ? "" : ": " + item.optString("error", "unknown error")), "info");
+                }
+            }
+            return results;
+        } finally {
+            for (int i = 0; i < requests.size(); i++) {
+                if (!done[i]) { requests.get(i).metrics.finish(); }
+                List<DomBuffer> domBuffers = domBuffers(requests.get(i).domSnapshot);
+                if (domBuffers != null) { domBuffers.forEach(DomBuffer::close); }
+            }
+        }
+    }
+
+    // The per-snapshot results of a batch response, or null
+    private JSONArray batchResults(PercyTransport.Response response) {
+        if (response == null) { return null; }
+        try {
+            return new JSONObject(response.bodyAsString()).optJSONArray("results");
+        } catch (Exception ex) {
+            log(serverAddress, ex.toString(), "debug");
+            return null;
+        }
+    }
+
+    /**
+     * Wait for every snapshot queued by {@link #snapshotAsync(String, Map)} or
+     * {@link #snapshotDeferred(String, Map)} to be uploaded.
+     *
+     * @return true if all uploads finished before the deadline.
+     */
+    public static boolean flush() {
+        return flush(SnapshotUploader.FLUSH_TIMEOUT);
+    }
+
+    /**
+     * Wait for every snapshot queued by {@link #snapshotAsync(String, Map)} or
+     * {@link #snapshotDeferred(String, Map)} to be uploaded.
+     *
+     * @param timeout Maximum time to wait.
+     * @return true if all uploads finished before the deadline.
+     */
+    public static boolean flush(Duration timeout) {
+        return SnapshotUploader.flushInstances(timeout);
+    }
 
+    /**
+     * Drain the background upload queue and stop its threads. A shutdown hook does this
+     * automatically, but calling it at the end of the run surfaces timeouts in the test log.
+     */
+    public static void close() {
+        SnapshotUploader.closeInstance(SnapshotUploader.FLUSH_TIMEOUT);
+    }
+
+    /**
+     * Receive metrics for every snapshot and screenshot taken by any Percy instance.
+     */
+    public static void addMetricsListener(PercyMetricsListener listener) {
+        MetricsRecorder.LISTENERS.add(listener);
+    }
+
+    public static void removeMetricsListener(PercyMetricsListener listener) {
+        MetricsRecorder.LISTENERS.remove(listener);
+    }
+
+    // Serialize the page with PercyDOM, at one or many widths
+    private Object captureDom(SnapshotOptions options) {
         Object domSnapshot = null;
 
         try {
             JavascriptExecutor jse = (JavascriptExecutor) driver;
-            jse.executeScript(fetchPercyDOM());
-            Set<Cookie> cookies = new HashSet<>();
-            try {
-                cookies = driver.manage().getCookies();
-            } catch(Exception e) {
-                log("Cookie collection failed " + e.getMessage(), "debug");
+            MetricsRecorder metrics = MetricsRecorder.current();
+            metrics.widths(1);
+            if ("always".equals(PERCY_DOM_INJECTION)) {
+                long injectStart = metrics.begin();
+                metrics.command();
+                jse.executeScript(fetchPercyDOM());
+                metrics.end("domInjection", injectStart);
             }
-            if (isCaptureResponsiveDOM(options)) {
-                domSnapshot = captureResponsiveDom(driver, cookies, options);
+            // Cookies are read after serializing, and attached to the first DOM only
+            AtomicBoolean withCookies = new AtomicBoolean(true);
+            if (DOM_CHUNK_SIZE > 0) {
+                if (isCaptureResponsiveDOM(options)) {
+                    domSnapshot = captureResponsiveDom(driver, options, width -> getChunkedDOM(jse, options, width, withCookies.getAndSet(false)));
+                } else {
+                    domSnapshot = getChunkedDOM(jse, options, null, true);
+                }
+            } else if (isCaptureResponsiveDOM(options)) {
+                domSnapshot = captureResponsiveDom(driver, options, width -> {
+                    Map<String, Object> dom = serializeDOM(jse, options, withCookies.getAndSet(false));
+                    dom.put("width", width);
+                    return dom;
+                });
             } else {
-                domSnapshot = getSerializedDOM(jse, cookies, options);
+                domSnapshot = serializeDOM(jse, options, true);
             }
         } catch (WebDriverException e) {
             // For some reason, the execution in the browser failed.
-            log(e.getMessage(), "debug");
+            log(serverAddress, e.getMessage(), "debug");
         }
 
-        return postSnapshot(domSnapshot, name, driver.getCurrentUrl(), options);
+        return domSnapshot;
     }
 
     /**
@@ -311,9 +768,57 @@ public class Percy {
      * @param options   Extra options
      */
     public JSONObject screenshot(String name, Map<String, Object> options) throws UnsupportedOperationException {
-        if (!isPercyEnabled) { return null; }
-        if (!"automate".equals(sessionType)) { throw new RuntimeException("Invalid function call - screenshot(). Please use snapshot() function for taking screenshot. screenshot() should be used only while using Percy with Automate. For more information on usage of snapshot(), refer doc for your language https://www.browserstack.com/docs/percy/integrate/overview"); }
+        return screenshot(name, options, ResolvedRegions.empty());
+    }
+
+    /**
+     * Take a screenshot and upload it to Percy, with regions resolved by
+     * {@link #resolveRegions(RegionSet)}. The same regions can be used for many screenshots of
+     * one page state.
+     *
+     * @param name    The human-readable name of the screenshot. Should be unique.
+     * @param options Extra options
+     * @param regions Regions to ignore or consider, added to any given in the options. They are
+     *                left out if the browser is no longer on the page they were resolved on.
+     */
+    public JSONObject screenshot(String name, Map<String, Object> options, ResolvedRegions regions) throws UnsupportedOperationException {
+        if (!isPercyEnabled()) { return null; }
+        if (!"automate".equals(getSessionType())) { throw new RuntimeException("Invalid function call - screenshot(). Please use snapshot() function for taking screenshot. screenshot() should be used only while using Percy with Automate. For more information on usage of snapshot(), refer doc for your language https://www.browserstack.com/docs/percy/integrate/overview"); }
+
+        MetricsRecorder metrics = MetricsRecorder.start("screenshot", name);
+        try {
+            // Elements of another page are stale, and its boxes would mark the wrong areas
+            if (regions.getUrl() != null) {
+                metrics.command();
+                String url = driver.getCurrentUrl();
+                if (!regions.getUrl().equals(url)) {
+                    log(serverAddress, "Regions were resolved on " + regions.getUrl() + ", not on " + url + ", leaving them out of " + name, "warn");
+                    regions = ResolvedRegions.empty();
+                }
+            }
+            return postScreenshot(name, options, regions);
+        } finally {
+            metrics.finish();
+        }
+    }
+
+    /**
+     * Find the elements and bounding boxes of every region in the current page, with one
+     * WebDriver command.
+     *
+     * @param regions Regions given as CSS selectors, XPaths or elements.
+     * @return The resolved regions, reusable until the page changes.
+     */
+    public ResolvedRegions resolveRegions(RegionSet regions) {
+        try {
+            return ResolvedRegions.resolve(driver, regions);
+        } catch (WebDriverException | ClassCastException e) {
+            log(serverAddress, "Could not resolve regions: " + e.getMessage(), "debug");
+            return ResolvedRegions.empty();
+        }
+    }
 
+    private JSONObject postScreenshot(String name, Map<String, Object> options, ResolvedRegions regions) {
         List<String> driverArray = Arrays.asList(driver.getClass().toString().split("\\$")); // Added to handle testcase (mocked driver)
         Iterator<String> driverIterator = driverArray.iterator();
         String driverClass = driverIterator.next();
@@ -344,6 +849,7 @@ public class Percy {
             options.remove(considerElementKey);
             options.put("consider_region_elements", considerElementIds);
         }
+        options = regions.applyTo(options);
 
         // Build a JSON object to POST back to the agent node process
         JSONObject json = new JSONObject();
@@ -359,83 +865,24 @@ public class Percy {
     }
 
     /**
-     * Checks to make sure the local Percy server is running. If not, disable Percy.
-     */
-    private boolean healthcheck() {
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
-            //Creating a HttpGet object
-            HttpGet httpget = new HttpGet(PERCY_SERVER_ADDRESS + "/percy/healthcheck");
-
-            //Executing the Get request
-            HttpResponse response = httpClient.execute(httpget);
-            int statusCode = response.getStatusLine().getStatusCode();
-
-            if (statusCode != 200){
-                throw new RuntimeException("Failed with HTTP error code : " + statusCode);
-            }
-
-            String version = response.getFirstHeader("x-percy-core-version").getValue();
-
-            if (version == null) {
-                log("You may be using @percy/agent" +
-                    "which is no longer supported by this SDK." +
-                    "Please uninstall @percy/agent and install @percy/cli instead." +
-                    "https://www.browserstack.com/docs/percy/migration/migrate-to-cli"
-                    );
-
-                return false;
-            }
-
-            if (!version.split("\\.")[0].equals("1")) {
-                log("Unsupported Percy CLI version, " + version);
-
-                return false;
-            }
-            HttpEntity entity = response.getEntity();
-            String responseString = EntityUtils.toString(entity, "UTF-8");
-            JSONObject responseObject = new JSONObject(responseString);
-            sessionType = (String) responseObject.optString("type", null);
-            eligibleWidths = responseObject.optJSONObject("widths");
-            cliConfig = responseObject.optJSONObject("config");
-
-            return true;
-        } catch (Exception ex) {
-            log("Percy is not running, disabling snapshots");
-            // bike shed.. single line?
-            log(ex.toString(), "debug");
-
-            return false;
-        }
-    }
-
-    /**
-     * Attempts to load dom.js from the local Percy server. Use cached value in `domJs`,
-     * if it exists.
+     * Attempts to load dom.js from the local Percy server. The script is cached once per
+     * JVM for each CLI version, see {@link DomJsCache}.
      *
      * This JavaScript is critical for capturing snapshots. It serializes and captures
      * the DOM. Without it, snapshots cannot be captured.
      */
     private String fetchPercyDOM() {
-        if (!domJs.trim().isEmpty()) { return domJs; }
-
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
-            HttpGet httpget = new HttpGet(PERCY_SERVER_ADDRESS + "/percy/dom.js");
-            HttpResponse response = httpClient.execute(httpget);
-            int statusCode = response.getStatusLine().getStatusCode();
-
-            if (statusCode != 200){
-                throw new RuntimeException("Failed with HTTP error code: " + statusCode);
-            }
-            HttpEntity httpEntity = response.getEntity();
-            String domString = EntityUtils.toString(httpEntity);
-            domJs = domString;
-
-            return domString;
+        MetricsRecorder metrics = MetricsRecorder.current();
+        long start = metrics.begin();
+        try {
+            return DomJsCache.forServer(serverInfo).get(serverInfo.getCoreVersion());
         } catch (Exception ex) {
-            isPercyEnabled = false;
-            log(ex.toString(), "debug");
+            disabledAt = CircuitBreaker.forAddress(serverAddress).recoveries();
+            log(serverAddress, ex.toString(), "debug");
 
             return "";
+        } finally {
+            metrics.end("domInjection", start);
         }
     }
 
@@ -450,23 +897,63 @@ public class Percy {
      * @param enableJavaScript Enable JavaScript in the Percy rendering environment
      * @param percyCSS Percy specific CSS that is only applied in Percy's browsers
      */
-    private JSONObject postSnapshot(
+    JSONObject postSnapshot(
       Object domSnapshot,
       String name,
       String url,
-      Map<String, Object> options
+      SnapshotOptions options
     ) {
-        if (!isPercyEnabled) { return null; }
+        List<DomBuffer> domBuffers = domBuffers(domSnapshot);
+        try {
+            if (!isPercyEnabled()) { return null; }
 
+            JSONObject json = snapshotJson(name, url, options);
+
+            ResourceIndex resourceIndex = domBuffers == null ? ResourceIndex.forServer(serverInfo) : null;
+            if (resourceIndex != null) {
+                // Resources the CLI already has are sent by hash
+                return data(resourceIndex.post(json, domSnapshot, entity -> send("/percy/snapshot", entity, name, isSync(json))), name);
+            }
+
+            return request("/percy/snapshot", snapshotEntity(json, domSnapshot), name, isSync(json));
+        } finally {
+            if (domBuffers != null) {
+                domBuffers.forEach(DomBuffer::close);
+            }
+        }
+    }
+
+    // Every snapshot property except the DOM
+    private JSONObject snapshotJson(String name, String url, SnapshotOptions options) {
         // Build a JSON object to POST back to the agent node process
-        JSONObject json = new JSONObject(options);
+        JSONObject json = options.payload();
         json.put("url", url);
         json.put("name", name);
-        json.put("domSnapshot", domSnapshot);
         json.put("clientInfo", env.getClientInfo());
         json.put("environmentInfo", env.getEnvironmentInfo());
+        return json;
+    }
 
-        return request("/percy/snapshot", json, name);
+    // The snapshot payload, streaming the DOM of a chunked capture
+    private static HttpEntity snapshotEntity(JSONObject json, Object domSnapshot) {
+        List<DomBuffer> domBuffers = domBuffers(domSnapshot);
+        if (domBuffers != null) {
+            return new SnapshotPayloadEntity(json, domBuffers, domSnapshot instanceof List);
+        }
+
+        json.put("domSnapshot", domSnapshot);
+        return jsonEntity(json);
+    }
+
+    // The DOM buffers of a chunked capture, or null for a DOM captured as a Map
+    private static List<DomBuffer> domBuffers(Object domSnapshot) {
+        if (domSnapshot instanceof DomBuffer) {
+            return Collections.singletonList((DomBuffer) domSnapshot);
+        }
+        if (domSnapshot instanceof List && !((List<?>) domSnapshot).isEmpty() && ((List<?>) domSnapshot).get(0) instanceof DomBuffer) {
+            return (List<DomBuffer>) domSnapshot;
+        }
+        return null;
     }
 
     /**
@@ -477,28 +964,61 @@ public class Percy {
      * @param json        Json object of all properties.
      */
     protected JSONObject request(String url, JSONObject json, String name) {
+        return data(send(url, jsonEntity(json), name, isSync(json)), name);
+    }
+
+    private JSONObject request(String url, HttpEntity entity, String name, boolean sync) {
+        return data(send(url, entity, name, sync), name);
+    }
+
+    // Sync requests wait for the comparison, so they keep the endpoint's full timeout
+    private static boolean isSync(JSONObject json) {
+        JSONObject options = json.optJSONObject("options");
+        return json.optBoolean("sync") || (options != null && options.optBoolean("sync"));
+    }
+
+    private static StringEntity jsonEntity(JSONObject json) {
+        MetricsRecorder metrics = MetricsRecorder.current();
+        long start = metrics.begin();
         StringEntity entity = new StringEntity(json.toString(), ContentType.APPLICATION_JSON);
+        metrics.end("upload", start);
+        return entity;
+    }
+
+    // POST a request body, returning the response or null if the CLI could not be reached
+    private PercyTransport.Response send(String url, HttpEntity entity, String name, boolean sync) {
+        MetricsRecorder metrics = MetricsRecorder.current();
+        long start = metrics.begin();
+        metrics.payloadBytes(entity.getContentLength());
 
-        int timeout = 600000; // 600 seconds = 600,000 milliseconds
+        PercyTransport.Request request = PercyTransport.Request.post(url, PercyHttpClient.compress(entity, serverInfo));
+        if (sync) { request.timeout(PercyHttpClient.timeout(url)); }
 
-        // Create RequestConfig with timeout
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setSocketTimeout(timeout)
-                .setConnectTimeout(timeout)
-                .build();
+        try {
+            PercyTransport.Response response = CircuitBreaker.forAddress(serverAddress).send(request);
+            metrics.responseStatus(response.getStatus());
+            return response;
+        } catch (Exception ex) {
+            log(serverAddress, ex.toString(), "debug");
+            log(serverAddress, "Could not post snapshot " + name, "info");
+            return null;
+        } finally {
+            metrics.end("upload", start);
+        }
+    }
 
-        try (CloseableHttpClient httpClient = HttpClients.custom().setDefaultRequestConfig(requestConfig).build()) {
-            HttpPost request = new HttpPost(PERCY_SERVER_ADDRESS + url);
-            request.setEntity(entity);
-            HttpResponse response = httpClient.execute(request);
-            JSONObject jsonResponse = new JSONObject(EntityUtils.toString(response.getEntity()));
+    // The `data` of a CLI response, or null
+    private JSONObject data(PercyTransport.Response response, String name) {
+        if (response == null) { return null; }
 
+        try {
+            JSONObject jsonResponse = new JSONObject(response.bodyAsString());
             if (jsonResponse.has("data")) {
                 return jsonResponse.getJSONObject("data");
             }
         } catch (Exception ex) {
-            log(ex.toString(), "debug");
-            log("Could not post snapshot " + name);
+            log(serverAddress, ex.toString(), "debug");
+            log(serverAddress, "Could not post snapshot " + name, "info");
         }
         return null;
     }
@@ -507,22 +1027,93 @@ public class Percy {
      * @return A String containing the JavaScript needed to instantiate a PercyAgent
      *         and take a snapshot.
      */
-    private String buildSnapshotJS(Map<String, Object> options) {
-        StringBuilder jsBuilder = new StringBuilder();
-        JSONObject json = new JSONObject(options);
-        jsBuilder.append(String.format("return PercyDOM.serialize(%s)\n", json.toString()));
+    private String buildSnapshotJS(SnapshotOptions options) {
+        return "return Object.assign(PercyDOM.serialize(" + options.json() + "), { "
+            + CookieProvider.FINGERPRINT_KEY + ": " + CookieProvider.FINGERPRINT_JS + " })\n";
+    }
+
+    /**
+     * Run a script that uses PercyDOM. The first call only checks whether the page already has
+     * PercyDOM; dom.js is sent along with the script only when it does not.
+     *
+     * @param body JavaScript to run once PercyDOM is available.
+     * @return The script's return value.
+     */
+    private Object executeWithPercyDOM(JavascriptExecutor jse, String body) {
+        MetricsRecorder.current().command();
+        Object result = jse.executeScript("if (typeof PercyDOM === 'undefined') { return '" + PERCY_DOM_MISSING + "'; }\n" + body);
+        if (!PERCY_DOM_MISSING.equals(result)) { return result; }
+
+        String script = fetchPercyDOM() + "\n" + body;
+        MetricsRecorder.current().command();
+        return jse.executeScript(script);
+    }
 
-        return jsBuilder.toString();
+    Map<String, Object> getSerializedDOM(JavascriptExecutor jse, Set<Cookie> cookies, SnapshotOptions options) {
+        Map<String, Object> domSnapshot = serializeDOM(jse, options, false);
+        if (cookies != null) { domSnapshot.put("cookies", cookies); }
+        return domSnapshot;
     }
 
-    private Map<String, Object> getSerializedDOM(JavascriptExecutor jse, Set<Cookie> cookies, Map<String, Object> options) {
-        Map<String, Object> domSnapshot = (Map<String, Object>) jse.executeScript(buildSnapshotJS(options));
+    // Serialize the page, with the current cookies if asked
+    private Map<String, Object> serializeDOM(JavascriptExecutor jse, SnapshotOptions options, boolean withCookies) {
+        MetricsRecorder metrics = MetricsRecorder.current();
+        long start = metrics.begin();
+        Map<String, Object> domSnapshot = (Map<String, Object>) executeWithPercyDOM(jse, buildSnapshotJS(options));
         Map<String, Object> mutableSnapshot = new HashMap<>(domSnapshot);
-        mutableSnapshot.put("cookies", cookies);
+        Object fingerprint = mutableSnapshot.remove(CookieProvider.FINGERPRINT_KEY);
+        metrics.end("serialize", start);
 
+        if (withCookies) { mutableSnapshot.put("cookies", cookieProvider.cookies(fingerprint)); }
         return mutableSnapshot;
     }
 
+    /**
+     * Serialize the page, keep the JSON in the page and read it back in chunks of
+     * {@code PERCY_DOM_CHUNK_SIZE} characters. The DOM never exists as one WebDriver response
+     * or as a Java object graph.
+     *
+     * @param width       Width to record in the snapshot, or null.
+     * @param withCookies Add the current cookies to the snapshot.
+     */
+    private DomBuffer getChunkedDOM(JavascriptExecutor jse, SnapshotOptions options, Integer width, boolean withCookies) {
+        MetricsRecorder metrics = MetricsRecorder.current();
+        long start = metrics.begin();
+        String extra = width == null ? "{}" : "{\"width\":" + width + "}";
+        String script = "var json = JSON.stringify(Object.assign(PercyDOM.serialize(" + options.json() + "), " + extra + "));\n"
+            + SERIALIZE_TO_PAGE_JS_END;
+        List<Object> serialized = (List<Object>) executeWithPercyDOM(jse, script);
+        long length = ((Number) serialized.get(0)).longValue();
+
+        DomBuffer buffer = new DomBuffer();
+        try {
+            long offset = 0;
+            while (offset < length) {
+                metrics.command();
+                String chunk = (String) jse.executeScript(READ_CHUNK_JS, offset, DOM_CHUNK_SIZE);
+                if (chunk == null || chunk.isEmpty()) {
+                    throw new WebDriverException("Serialized DOM ended at " + offset + " of " + length + " characters");
+                }
+                buffer.append(chunk);
+                offset += chunk.length();
+            }
+            metrics.end("serialize", start);
+            // The page left the object open so cookies can be added without parsing it
+            if (withCookies) {
+                String cookiesJson = new JSONArray(cookieProvider.cookies(serialized.get(2))).toString();
+                buffer.append((Boolean.TRUE.equals(serialized.get(1)) ? "," : "") + "\"cookies\":" + cookiesJson);
+            }
+            buffer.append("}");
+            return buffer;
+        } catch (IOException e) {
+            buffer.close();
+            throw new WebDriverException("Could not buffer serialized DOM", e);
+        } catch (RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+    }
+
     private List<String> getElementIdFromElement(List<RemoteWebElement> elements) {
         List<String> ignoredElementsArray = new ArrayList<>();
         for (int index = 0; index < elements.size(); index++) {
@@ -533,16 +1124,15 @@ public class Percy {
     }
 
     // Get widths for multi DOM
-    private List<Integer> getWidthsForMultiDom(Map<String, Object> options) {
-        List<Integer> widths;
-        if (options.containsKey("widths") && options.get("widths") instanceof List<?>) {
-            widths = (List<Integer>) options.get("widths");
-        } else {
+    List<Integer> getWidthsForMultiDom(SnapshotOptions options) {
+        List<Integer> widths = options.getWidths();
+        if (widths == null) {
             widths = new ArrayList<>();
         }
         // Create a Set to avoid duplicates
         Set<Integer> allWidths = new HashSet<>();
 
+        JSONObject eligibleWidths = getEligibleWidths();
         JSONArray mobileWidths = eligibleWidths.getJSONArray("mobile");
         for (int i = 0; i < mobileWidths.length(); i++) {
             allWidths.add(mobileWidths.getInt(i));
@@ -565,111 +1155,156 @@ public class Percy {
         return allWidths.stream().collect(Collectors.toList());
     }
 
-    // Method to check if ChromeDriver supports CDP by checking the existence of executeCdpCommand
-    private static boolean isCdpSupported(ChromeDriver chromeDriver) {
+    // Change window dimensions and wait for the resize event
+    private void changeWindowDimensionAndWait(WebDriver driver, int width, int height, int resizeCount, boolean restore) {
+        MetricsRecorder metrics = MetricsRecorder.current();
+        long start = metrics.begin();
         try {
-            chromeDriver.getClass().getMethod("executeCdpCommand", String.class, Map.class);
-            return true;
-        } catch (NoSuchMethodException e) {
-            return false;
+            resizeAndWait(driver, width, height, resizeCount, restore);
+        } finally {
+            metrics.end("resize", start);
         }
     }
 
-    // Change window dimensions and wait for the resize event
-    private static void changeWindowDimensionAndWait(WebDriver driver, int width, int height, int resizeCount) {
+    private void resizeAndWait(WebDriver driver, int width, int height, int resizeCount, boolean restore) {
+        MetricsRecorder.current().command();
+        ResizeStrategy strategy = resizeStrategy != null ? resizeStrategy : ResizeStrategy.forDriver(driver);
+        boolean resized;
         try {
-            if (driver instanceof ChromeDriver && isCdpSupported((ChromeDriver) driver)) {
-                Map<String, Object> commandParams = new HashMap<>();
-                commandParams.put("width", width);
-                commandParams.put("height", height);
-                commandParams.put("deviceScaleFactor", 1);
-                commandParams.put("mobile", false);
-
-                ((ChromeDriver) driver).executeCdpCommand("Emulation.setDeviceMetricsOverride", commandParams);
+            resized = restore ? strategy.restore(driver, width, height) : strategy.resize(driver, width, height);
+        } catch (Exception e) {
+            if (restore && strategy instanceof CdpResizeStrategy) {
+                // The page may keep emulating the last width, resizing the window cannot undo that
+                log(serverAddress, "Could not clear the emulated viewport, the page may keep the last snapshot width: " + e.getMessage(), "warn");
             } else {
-                driver.manage().window().setSize(new Dimension(width, height));
+                log(serverAddress, "Resizing failed, falling back to driver for width " + width + ": " + e.getMessage(), "debug");
             }
-        } catch (Exception e) {
-            log("Resizing using CDP failed, falling back to driver for width " + width + ": " + e.getMessage(), "debug");
-            driver.manage().window().setSize(new Dimension(width, height));
+            if (resizeStrategy == null) { ResizeStrategyProbe.fallBackToWindowSize(driver); }
+            resized = ResizeStrategy.windowSize().resize(driver, width, height);
         }
+        if (!resized) { return; }
 
-        // Wait for window resize event using WebDriverWait
+        // Wait for the resize event in the page, so the wait ends as soon as it fires
         try {
-            WebDriverWait wait = new WebDriverWait(driver, Duration.ofSeconds(1));
-            wait.until((ExpectedCondition<Boolean>) d ->
-                    (long) ((JavascriptExecutor) d).executeScript("return window.resizeCount") == resizeCount);
+            MetricsRecorder.current().command();
+            Object count = ((JavascriptExecutor) driver).executeAsyncScript(WAIT_FOR_RESIZE_JS, resizeCount);
+            if (!(count instanceof Number) || ((Number) count).intValue() != resizeCount) {
+                log(serverAddress, "Timed out waiting for window resize event for width " + width, "debug");
+            }
         } catch (WebDriverException e) {
-            log("Timed out waiting for window resize event for width " + width, "debug");
+            log(serverAddress, "Waiting for window resize event failed for width " + width + ": " + e.getMessage(), "debug");
         }
     }
 
-    // Capture responsive DOM for different widths
+    // Capture responsive DOM for different widths. Cookies, if any, go with the first width.
     public List<Map<String, Object>> captureResponsiveDom(WebDriver driver, Set<Cookie> cookies, Map<String, Object> options) {
-        List<Integer> widths = getWidthsForMultiDom(options);
+        JavascriptExecutor jse = (JavascriptExecutor) driver;
+        AtomicBoolean first = new AtomicBoolean(true);
+        SnapshotOptions snapshotOptions = SnapshotOptions.fromMap(options);
+        return captureResponsiveDom(driver, snapshotOptions, width -> {
+            Map<String, Object> domSnapshot = getSerializedDOM(jse, first.getAndSet(false) ? cookies : null, snapshotOptions);
+            domSnapshot.put("width", width);
+            return domSnapshot;
+        });
+    }
 
-        List<Map<String, Object>> domSnapshots = new ArrayList<>();
+    // Capture the DOM at each width with `capture`
+    private <T> List<T> captureResponsiveDom(WebDriver driver, SnapshotOptions options, IntFunction<T> capture) {
+        List<Integer> widths = getWidthsForMultiDom(options);
+        MetricsRecorder.current().widths(widths.size());
+        MetricsRecorder.current().command();
 
         Dimension windowSize = driver.manage().window().getSize();
         int currentWidth = windowSize.getWidth();
         int currentHeight = windowSize.getHeight();
+
+        if ("windows".equals(RESPONSIVE_CAPTURE_MODE)) {
+            List<T> domSnapshots = WindowedCapture.capture(driver, widths, currentHeight, width -> settle(driver, width), capture);
+            if (domSnapshots != null) { return domSnapshots; }
+        }
+
+        List<T> domSnapshots = new ArrayList<>();
         int lastWindowWidth = currentWidth;
         int resizeCount = 0;
         JavascriptExecutor jse = (JavascriptExecutor) driver;
 
         // Inject JS to count window resize events
-        jse.executeScript("PercyDOM.waitForResize()");
+        executeWithPercyDOM(jse, "PercyDOM.waitForResize()");
 
         for (int width : widths) {
             if (lastWindowWidth != width) {
                 resizeCount++;
-                changeWindowDimensionAndWait(driver, width, currentHeight, resizeCount);
+                changeWindowDimensionAndWait(driver, width, currentHeight, resizeCount, false);
                 lastWindowWidth = width;
             }
 
-            try {
-                int sleepTime = Integer.parseInt(RESONSIVE_CAPTURE_SLEEP_TIME);
-                Thread.sleep(sleepTime * 1000); // Sleep if needed
-            } catch (InterruptedException | NumberFormatException ignored) {
-            }
-            Map<String, Object> domSnapshot = getSerializedDOM(jse, cookies, options);
-            domSnapshot.put("width", width);
-            domSnapshots.add(domSnapshot);
+            settle(driver, width);
+            domSnapshots.add(capture.apply(width));
         }
 
         // Revert to the original window size
-        changeWindowDimensionAndWait(driver, currentWidth, currentHeight, resizeCount + 1);
+        if (resizeCount > 0) {
+            changeWindowDimensionAndWait(driver, currentWidth, currentHeight, resizeCount + 1, true);
+        }
 
         return domSnapshots;
     }
 
+    private void settle(WebDriver driver, int width) {
+        MetricsRecorder metrics = MetricsRecorder.current();
+        long start = metrics.begin();
+        long waited = settleStrategy.settle(driver, width);
+        metrics.end("settle", start);
+        if (waited > 0) {
+            log(serverAddress, "Waited " + waited + "ms for the page to settle at width " + width, "debug");
+        }
+    }
+
+    // PERCY_RESIZE_STRATEGY, null when the strategy should be probed
+    static ResizeStrategy resizeStrategyFromEnv(String strategy) {
+        switch (strategy) {
+            case "cdp": return ResizeStrategy.deviceMetrics();
+            case "window": return ResizeStrategy.windowSize();
+            case "none": return ResizeStrategy.none();
+            default: return null;
+        }
+    }
+
+    // PERCY_RESPONSIVE_SETTLE, falling back to the whole-second RESONSIVE_CAPTURE_SLEEP_TIME
+    static SettleStrategy settleStrategyFromEnv(String settle, String legacySleepSeconds) {
+        try {
+            if (settle.startsWith("sleep:")) {
+                return SettleStrategy.sleep(Duration.ofMillis(Long.parseLong(settle.substring("sleep:".length()))));
+            }
+            if (settle.startsWith("frames:")) {
+                return SettleStrategy.quietFrames(Integer.parseInt(settle.substring("frames:".length())), SETTLE_TIMEOUT);
+            }
+            if (settle.isEmpty() && !legacySleepSeconds.isEmpty()) {
+                return SettleStrategy.sleep(Duration.ofSeconds(Long.parseLong(legacySleepSeconds)));
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        return SettleStrategy.none();
+    }
+
     protected static void log(String message) {
         log(message, "info");
     }
 
     protected static void log(String message, String level) {
+        log(PERCY_SERVER_ADDRESS, message, level);
+    }
+
+    // Log, and forward the record to the CLI at this address
+    static void log(String address, String message, String level) {
         message = LABEL + " " + message;
-        String logJsonString = "{\"message\": \"" + message + "\", \"level\": \"" + level + "\"}";
-        StringEntity entity = new StringEntity(logJsonString, ContentType.APPLICATION_JSON);
-        int timeout = 1000; // 1 second
-
-        // Create RequestConfig with timeout
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setSocketTimeout(timeout)
-                .setConnectTimeout(timeout)
-                .build();
-
-        try (CloseableHttpClient httpClient = HttpClients.custom().setDefaultRequestConfig(requestConfig).build()) {
-            HttpPost request = new HttpPost(PERCY_SERVER_ADDRESS + "/percy/log");
-            request.setEntity(entity);
-            httpClient.execute(request);
-        } catch (Exception ex) {
-            if (PERCY_DEBUG) { System.out.println("Sending log to CLI Failed " + ex.toString()); }
-        } finally {
-            // Only log if level is not 'debug' or PERCY_DEBUG is true
-            if (!"debug".equals(level) || PERCY_DEBUG) {
-                System.out.println(message);
-            }
+        // Forwarded to the CLI in the background, so logging never waits on the network
+        LogAppender appender = LogAppender.forAddress(address);
+        if (appender != null) { appender.append(message, level); }
+
+        // Only log if level is not 'debug' or PERCY_DEBUG is true
+        if (!"debug".equals(level) || PERCY_DEBUG) {
+            System.out.println(message);
         }
     }
 }
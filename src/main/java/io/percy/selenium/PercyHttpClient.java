@@ -0,0 +1,154 @@
+package io.percy.selenium;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide pooled HTTP client shared by every {@link Percy} instance for traffic to the
+ * Percy CLI. Connections are kept alive between requests instead of being opened per call.
+ */
+public final class PercyHttpClient {
+    // Total and per-route connection limits. All traffic goes to one route, the CLI server.
+    static final int MAX_CONNECTIONS = Settings.intValue("PERCY_HTTP_MAX_CONNECTIONS", 20, 1);
+
+    // How long an idle connection is kept. The CLI runs on Node, which closes idle sockets after 5 seconds.
+    private static final long KEEP_ALIVE_MS = Settings.longValue("PERCY_HTTP_KEEP_ALIVE_MS", 4000, 1);
+
+    // Time to wait for a free connection from the pool
+    private static final int LEASE_TIMEOUT_MS = 30000;
+
+    // Gzip request bodies: `true`, `false`, or `auto` to follow the CLI's healthcheck response
+    private static final String GZIP_REQUESTS = System.getenv().getOrDefault("PERCY_GZIP_REQUESTS", "auto");
+
+    // Bodies smaller than this are sent uncompressed
+    private static final long GZIP_MIN_BYTES = Settings.longValue("PERCY_GZIP_MIN_BYTES", 16384, 0);
+
+    static final RequestConfig HEALTHCHECK_CONFIG = timeouts(30000);
+    static final RequestConfig DOM_CONFIG = timeouts(30000);
+    static final RequestConfig LOG_CONFIG = timeouts(1000);
+    // Snapshot uploads can wait on asset discovery or, with `sync`, on the comparison itself
+    static final RequestConfig SNAPSHOT_CONFIG = timeouts(600000);
+
+    private static PoolingHttpClientConnectionManager connectionManager;
+    private static volatile CloseableHttpClient client;
+
+    private PercyHttpClient() {
+    }
+
+    /**
+     * @return The shared client, created on first use.
+     */
+    static CloseableHttpClient get() {
+        CloseableHttpClient current = client;
+        if (current != null) { return current; }
+
+        synchronized (PercyHttpClient.class) {
+            if (client != null) { return client; }
+
+            connectionManager = new PoolingHttpClientConnectionManager(KEEP_ALIVE_MS * 2, TimeUnit.MILLISECONDS);
+            connectionManager.setMaxTotal(MAX_CONNECTIONS);
+            connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+            connectionManager.setValidateAfterInactivity(1000);
+
+            client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? Math.min(keepAlive, KEEP_ALIVE_MS) : KEEP_ALIVE_MS;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(KEEP_ALIVE_MS, TimeUnit.MILLISECONDS)
+                .setDefaultRequestConfig(SNAPSHOT_CONFIG)
+                .build();
+            return client;
+        }
+    }
+
+    /**
+     * @param path A CLI endpoint, such as {@code /percy/snapshot}.
+     * @return The request timeouts used for that endpoint.
+     */
+    static RequestConfig requestConfig(String path) {
+        switch (path) {
+            case "/percy/healthcheck":
+                return HEALTHCHECK_CONFIG;
+            case "/percy/dom.js":
+                return DOM_CONFIG;
+            case "/percy/log":
+                return LOG_CONFIG;
+            default:
+                return SNAPSHOT_CONFIG;
+        }
+    }
+
+    /**
+     * @param path A CLI endpoint, such as {@code /percy/snapshot}.
+     * @return The connect and read timeout for that endpoint.
+     */
+    static Duration timeout(String path) {
+        return Duration.ofMillis(requestConfig(path).getSocketTimeout());
+    }
+
+    /**
+     * Gzip a request body if compression is enabled for the server and the body is large enough.
+     * The compressed body is streamed with {@code Content-Encoding: gzip}.
+     *
+     * @param entity     The uncompressed request body.
+     * @param serverInfo The server the body is sent to.
+     * @return The body to send.
+     */
+    static HttpEntity compress(HttpEntity entity, PercyServerInfo serverInfo) {
+        boolean enabled = "auto".equals(GZIP_REQUESTS) ? serverInfo.acceptsGzip() : Boolean.parseBoolean(GZIP_REQUESTS);
+        return compress(entity, enabled, GZIP_MIN_BYTES);
+    }
+
+    static HttpEntity compress(HttpEntity entity, boolean enabled, long minBytes) {
+        long length = entity.getContentLength();
+        if (!enabled || (length >= 0 && length < minBytes)) { return entity; }
+
+        return new GzipCompressingEntity(entity);
+    }
+
+    /**
+     * Connection pool statistics, useful for sizing {@code PERCY_HTTP_MAX_CONNECTIONS}.
+     *
+     * @return Leased, pending, available and maximum connection counts. Nothing is leased
+     *         or available before the first request.
+     */
+    public static synchronized PoolStats getStats() {
+        if (connectionManager == null) { return new PoolStats(0, 0, 0, MAX_CONNECTIONS); }
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Close every pooled connection. The next request creates a fresh pool.
+     */
+    static synchronized void shutdown() {
+        if (client == null) { return; }
+        try {
+            client.close();
+        } catch (IOException ignored) {
+        } finally {
+            client = null;
+            connectionManager = null;
+        }
+    }
+
+    private static RequestConfig timeouts(int timeout) {
+        return RequestConfig.custom()
+            .setSocketTimeout(timeout)
+            .setConnectTimeout(timeout)
+            .setConnectionRequestTimeout(LEASE_TIMEOUT_MS)
+            .build();
+    }
+}
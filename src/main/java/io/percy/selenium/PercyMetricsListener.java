@@ -0,0 +1,13 @@
+package io.percy.selenium;
+
+/**
+ * Receives timing and payload metrics for every snapshot and screenshot.
+ *
+ * Register one with {@link Percy#addMetricsListener(PercyMetricsListener)}. Listeners are called
+ * on the thread that finished the snapshot, which is an upload thread for
+ * {@link Percy#snapshotAsync(String)}, so they should return quickly and be thread-safe.
+ * Exceptions thrown by a listener are logged and ignored.
+ */
+public interface PercyMetricsListener {
+    void onSnapshot(SnapshotMetrics metrics);
+}
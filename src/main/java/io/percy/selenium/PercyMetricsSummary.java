@@ -0,0 +1,174 @@
+package io.percy.selenium;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * {@link PercyMetricsListener} that aggregates a run into a JSON summary: counts, payload
+ * sizes, a latency histogram per phase and the slowest snapshots.
+ *
+ * Set {@code PERCY_METRICS_FILE} to have the SDK register one and write it to that file when
+ * the JVM exits.
+ */
+public class PercyMetricsSummary implements PercyMetricsListener {
+    // Upper bounds of the histogram buckets, in milliseconds
+    private static final long[] BUCKETS_MS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000 };
+
+    private static final int DEFAULT_SLOWEST = 10;
+
+    private final int slowestCount;
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final PriorityQueue<SnapshotMetrics> slowest = new PriorityQueue<>(Comparator.comparing(SnapshotMetrics::getTotal));
+    private long snapshots = 0;
+    private long screenshots = 0;
+    private long failures = 0;
+    private long payloadBytes = 0;
+    private long commands = 0;
+
+    public PercyMetricsSummary() {
+        this(DEFAULT_SLOWEST);
+    }
+
+    /**
+     * @param slowestCount Number of slowest snapshots to keep.
+     */
+    public PercyMetricsSummary(int slowestCount) {
+        this.slowestCount = slowestCount;
+    }
+
+    // Register a summary written to PERCY_METRICS_FILE at exit, if it is set
+    static void installFromEnv() {
+        String file = System.getenv().getOrDefault("PERCY_METRICS_FILE", "");
+        if (file.isEmpty()) { return; }
+
+        PercyMetricsSummary summary = new PercyMetricsSummary();
+        MetricsRecorder.LISTENERS.add(summary);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                summary.writeTo(Paths.get(file));
+            } catch (IOException e) {
+                Percy.log("Could not write Percy metrics to " + file + ": " + e.getMessage(), "warn");
+            }
+        }, "percy-metrics"));
+    }
+
+    @Override
+    public synchronized void onSnapshot(SnapshotMetrics metrics) {
+        if ("screenshot".equals(metrics.getKind())) { screenshots++; } else { snapshots++; }
+        if (metrics.getResponseStatus() != 200) { failures++; }
+        payloadBytes += metrics.getPayloadBytes();
+        commands += metrics.getCommandCount();
+
+        histogram("total").add(metrics.getTotal());
+        metrics.getPhases().forEach((phase, duration) -> histogram(phase).add(duration));
+
+        slowest.add(metrics);
+        if (slowest.size() > slowestCount) { slowest.poll(); }
+    }
+
+    /**
+     * @return The summary so far.
+     */
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("snapshots", snapshots);
+        json.put("screenshots", screenshots);
+        json.put("failures", failures);
+        json.put("payloadBytes", payloadBytes);
+        json.put("webDriverCommands", commands);
+
+        JSONObject phases = new JSONObject();
+        histograms.forEach((phase, histogram) -> phases.put(phase, histogram.toJSON()));
+        json.put("latency", phases);
+
+        List<SnapshotMetrics> sorted = new ArrayList<>(slowest);
+        sorted.sort(Comparator.comparing(SnapshotMetrics::getTotal).reversed());
+        JSONArray slow = new JSONArray();
+        for (SnapshotMetrics metrics : sorted) {
+            JSONObject entry = new JSONObject();
+            entry.put("name", metrics.getName());
+            entry.put("kind", metrics.getKind());
+            entry.put("totalMs", metrics.getTotal().toMillis());
+            JSONObject phaseMs = new JSONObject();
+            metrics.getPhases().forEach((phase, duration) -> phaseMs.put(phase, duration.toMillis()));
+            entry.put("phasesMs", phaseMs);
+            entry.put("payloadBytes", metrics.getPayloadBytes());
+            entry.put("widths", metrics.getWidthCount());
+            entry.put("webDriverCommands", metrics.getCommandCount());
+            entry.put("responseStatus", metrics.getResponseStatus());
+            slow.put(entry);
+        }
+        json.put("slowest", slow);
+        return json;
+    }
+
+    /**
+     * Write the summary as JSON.
+     */
+    public void writeTo(Path file) throws IOException {
+        Files.write(file, toJSON().toString(2).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Histogram histogram(String phase) {
+        return histograms.computeIfAbsent(phase, p -> new Histogram());
+    }
+
+    private static final class Histogram {
+        final long[] counts = new long[BUCKETS_MS.length + 1];
+        long count = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+
+        void add(Duration duration) {
+            long nanos = duration.toNanos();
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+
+            int bucket = 0;
+            while (bucket < BUCKETS_MS.length && nanos > BUCKETS_MS[bucket] * 1000000) { bucket++; }
+            counts[bucket]++;
+        }
+
+        // Upper bound of the bucket holding the given fraction of samples
+        long percentileMs(double p) {
+            long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) { return i < BUCKETS_MS.length ? BUCKETS_MS[i] : maxNanos / 1000000; }
+            }
+            return maxNanos / 1000000;
+        }
+
+        JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("meanMs", count == 0 ? 0 : totalNanos / count / 1000000.0);
+            json.put("maxMs", maxNanos / 1000000.0);
+            json.put("p50Ms", percentileMs(0.50));
+            json.put("p99Ms", percentileMs(0.99));
+
+            JSONObject buckets = new JSONObject();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) { continue; }
+                buckets.put(i < BUCKETS_MS.length ? "le" + BUCKETS_MS[i] : "gt" + BUCKETS_MS[BUCKETS_MS.length - 1], counts[i]);
+            }
+            json.put("buckets", buckets);
+            return json;
+        }
+    }
+}
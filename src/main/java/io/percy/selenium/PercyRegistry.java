@@ -0,0 +1,98 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.SessionId;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out one {@link Percy} per driver for parallel test execution.
+ *
+ * Handles are cheap and share the healthcheck, the dom.js cache and the HTTP connection pool.
+ * A test thread binds its driver once, e.g. in a {@code @BeforeEach}, and gets its handle back
+ * with {@link #current()}:
+ *
+ * <pre>{@code
+ * PercyRegistry.getDefault().bind(driver);
+ * ...
+ * PercyRegistry.getDefault().current().snapshot("Home page");
+ * ...
+ * PercyRegistry.getDefault().release(driver);
+ * }</pre>
+ */
+public final class PercyRegistry {
+    private static final PercyRegistry DEFAULT = new PercyRegistry(null);
+
+    // Address of the Percy CLI, or null for PERCY_SERVER_ADDRESS
+    private final String serverAddress;
+    private final ConcurrentHashMap<WebDriver, Percy> handles = new ConcurrentHashMap<>();
+    private final ThreadLocal<Percy> current = new ThreadLocal<>();
+
+    /**
+     * @param serverAddress Address of the Percy CLI, or null for {@code PERCY_SERVER_ADDRESS}.
+     */
+    public PercyRegistry(String serverAddress) {
+        this.serverAddress = serverAddress;
+    }
+
+    /**
+     * @return The registry for the CLI at {@code PERCY_SERVER_ADDRESS}.
+     */
+    public static PercyRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return The handle for a driver, created on first use.
+     */
+    public Percy forDriver(WebDriver driver) {
+        return handles.computeIfAbsent(driver, d -> serverAddress == null ? new Percy(d) : new Percy(d, serverAddress));
+    }
+
+    /**
+     * Make a driver's handle the current one for this thread.
+     *
+     * @return The handle.
+     */
+    public Percy bind(WebDriver driver) {
+        Percy percy = forDriver(driver);
+        current.set(percy);
+        return percy;
+    }
+
+    /**
+     * @return The handle bound to this thread.
+     * @throws IllegalStateException if no driver was bound on this thread.
+     */
+    public Percy current() {
+        Percy percy = current.get();
+        if (percy == null) {
+            throw new IllegalStateException("No driver bound to " + Thread.currentThread().getName() + ", call PercyRegistry.bind(driver) first");
+        }
+        return percy;
+    }
+
+    /**
+     * Drop a driver's handle and the session metadata cached for it, e.g. before quitting the
+     * driver.
+     */
+    public void release(WebDriver driver) {
+        Percy percy = handles.remove(driver);
+        if (percy != null && current.get() == percy) {
+            current.remove();
+        }
+
+        if (driver instanceof RemoteWebDriver) {
+            SessionId sessionId = ((RemoteWebDriver) driver).getSessionId();
+            if (sessionId != null) { DriverMetadata.invalidateSession(sessionId.toString()); }
+        }
+    }
+
+    /**
+     * @return Number of drivers with a handle.
+     */
+    public int size() {
+        return handles.size();
+    }
+}
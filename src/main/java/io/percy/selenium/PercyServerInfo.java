@@ -0,0 +1,255 @@
+package io.percy.selenium;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide view of a Percy CLI server, shared by every {@link Percy} instance that talks
+ * to the same address.
+ *
+ * The healthcheck runs once, on first use or in the background via {@link #prefetch()}. Its
+ * result is cached for {@code PERCY_SERVER_INFO_TTL} seconds; by default it never expires.
+ * A healthcheck that could not reach the CLI is only cached for
+ * {@code PERCY_SERVER_INFO_FAILURE_TTL} seconds, so a CLI that starts late is picked up.
+ * An expired result is still served while a background healthcheck refreshes it.
+ */
+public final class PercyServerInfo {
+    // Seconds before the healthcheck result is refreshed, 0 to keep it for the whole run
+    private static final long TTL_MS = Settings.longValue("PERCY_SERVER_INFO_TTL", 0, 0) * 1000;
+
+    // Seconds before a healthcheck that could not reach the CLI is tried again
+    private static final long FAILURE_TTL_MS = Settings.longValue("PERCY_SERVER_INFO_FAILURE_TTL", 1, 0) * 1000;
+
+    private static final ConcurrentHashMap<String, PercyServerInfo> INSTANCES = new ConcurrentHashMap<>();
+
+    private final String address;
+    private volatile State state;
+    private volatile boolean refreshing = false;
+
+    private PercyServerInfo(String address) {
+        this.address = address;
+    }
+
+    /**
+     * @param address Base URL of the Percy CLI server, such as {@code http://localhost:5338}.
+     * @return The shared server info for that address.
+     */
+    public static PercyServerInfo forAddress(String address) {
+        return INSTANCES.computeIfAbsent(address, PercyServerInfo::new);
+    }
+
+    /**
+     * @return Base URL of the Percy CLI server.
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return true if the CLI is running and supported by this SDK.
+     */
+    public boolean isEnabled() {
+        return state().enabled;
+    }
+
+    /**
+     * @return Type of the Percy session, {@code web} or {@code automate}, or null.
+     */
+    public String getSessionType() {
+        return state().type;
+    }
+
+    /**
+     * @return The mobile and config widths eligible for responsive capture, or null.
+     *         Shared between callers; do not modify.
+     */
+    public JSONObject getEligibleWidths() {
+        return state().widths;
+    }
+
+    /**
+     * @return The CLI config, or null. Shared between callers; do not modify.
+     */
+    public JSONObject getCliConfig() {
+        return state().config;
+    }
+
+    /**
+     * @return Version of @percy/core reported by the CLI, or null if it is not running.
+     */
+    public String getCoreVersion() {
+        return state().coreVersion;
+    }
+
+    /**
+     * @return true if the CLI advertised, with an {@code Accept-Encoding} header on the
+     *         healthcheck response, that it accepts gzip request bodies.
+     */
+    public boolean acceptsGzip() {
+        return state().acceptsGzip;
+    }
+
+    /**
+     * @return true if the CLI advertised, with an {@code X-Percy-Resource-Dedup: sha256} header
+     *         on the healthcheck response, that it accepts resources sent by hash.
+     */
+    public boolean supportsResourceDedup() {
+        return state().resourceDedup;
+    }
+
+    /**
+     * Run the healthcheck on a background thread if it has not run yet or has expired.
+     * Returns immediately.
+     */
+    public void prefetch() {
+        State current = state;
+        if (current != null && !current.isExpired()) { return; }
+        refreshInBackground();
+    }
+
+    /**
+     * Drop the cached healthcheck result. The next call runs the healthcheck again.
+     */
+    public synchronized void invalidate() {
+        state = null;
+    }
+
+    private State state() {
+        State current = state;
+        if (current == null) {
+            return load();
+        }
+        if (current.isExpired()) {
+            refreshInBackground();
+        }
+        return current;
+    }
+
+    private synchronized State load() {
+        // Another thread may have finished the healthcheck while we waited for the lock
+        if (state == null) {
+            state = healthcheck();
+        }
+        return state;
+    }
+
+    private void refreshInBackground() {
+        synchronized (this) {
+            if (refreshing) { return; }
+            refreshing = true;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                State current = state;
+                if (current == null) {
+                    // First load: hold the lock so callers wait for this healthcheck instead of running their own
+                    load();
+                } else if (current.isExpired()) {
+                    // Refresh: keep serving the expired result until the new one is ready
+                    state = healthcheck();
+                }
+            } finally {
+                refreshing = false;
+            }
+        }, "percy-healthcheck");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Checks to make sure the local Percy server is running. If not, disable Percy.
+     */
+    private State healthcheck() {
+        //Executing the Get request
+        try {
+            PercyTransport.Response response = CircuitBreaker.forAddress(address).send(PercyTransport.Request.get("/percy/healthcheck"));
+            int statusCode = response.getStatus();
+
+            if (statusCode != 200){
+                throw new RuntimeException("Failed with HTTP error code : " + statusCode);
+            }
+
+            String version = response.header("x-percy-core-version");
+
+            if (version == null) {
+                Percy.log(address, "You may be using @percy/agent" +
+                    "which is no longer supported by this SDK." +
+                    "Please uninstall @percy/agent and install @percy/cli instead." +
+                    "https://www.browserstack.com/docs/percy/migration/migrate-to-cli",
+                    "info"
+                    );
+
+                return State.disabled();
+            }
+
+            if (!version.split("\\.")[0].equals("1")) {
+                Percy.log(address, "Unsupported Percy CLI version, " + version, "info");
+
+                return State.disabled();
+            }
+
+            JSONObject responseObject = new JSONObject(response.bodyAsString());
+            // RFC 7694: Accept-Encoding on a response lists the codings accepted in requests
+            String acceptEncoding = response.header("Accept-Encoding");
+
+            return new State(true, version,
+                responseObject.optString("type", null),
+                responseObject.optJSONObject("widths"),
+                responseObject.optJSONObject("config"),
+                acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip"),
+                ResourceIndex.ALGORITHM.equalsIgnoreCase(response.header("X-Percy-Resource-Dedup")));
+        } catch (Exception ex) {
+            // Retried every FAILURE_TTL_MS, so only say it when the CLI was not already unreachable
+            State previous = state;
+            Percy.log(address, "Percy is not running, disabling snapshots", previous != null && previous.unreachable ? "debug" : "info");
+            Percy.log(address, ex.toString(), "debug");
+
+            return State.unreachable();
+        }
+    }
+
+    // Immutable result of one healthcheck
+    private static final class State {
+        final boolean enabled;
+        final String coreVersion;
+        final String type;
+        final JSONObject widths;
+        final JSONObject config;
+        final boolean acceptsGzip;
+        final boolean resourceDedup;
+        // The CLI did not answer, as opposed to answering that it can't be used
+        final boolean unreachable;
+        final long fetchedAt = System.currentTimeMillis();
+
+        State(boolean enabled, String coreVersion, String type, JSONObject widths, JSONObject config, boolean acceptsGzip, boolean resourceDedup) {
+            this(enabled, coreVersion, type, widths, config, acceptsGzip, resourceDedup, false);
+        }
+
+        private State(boolean enabled, String coreVersion, String type, JSONObject widths, JSONObject config, boolean acceptsGzip,
+                      boolean resourceDedup, boolean unreachable) {
+            this.enabled = enabled;
+            this.coreVersion = coreVersion;
+            this.type = type;
+            this.widths = widths;
+            this.config = config;
+            this.acceptsGzip = acceptsGzip;
+            this.resourceDedup = resourceDedup;
+            this.unreachable = unreachable;
+        }
+
+        static State disabled() {
+            return new State(false, null, null, null, null, false, false);
+        }
+
+        static State unreachable() {
+            return new State(false, null, null, null, null, false, false, true);
+        }
+
+        boolean isExpired() {
+            long ttl = unreachable ? FAILURE_TTL_MS : TTL_MS;
+            return ttl > 0 && System.currentTimeMillis() - fetchedAt > ttl;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package io.percy.selenium;
+
+import org.apache.http.HttpEntity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Carries requests from the SDK to a Percy CLI server. Every call to the CLI (healthcheck,
+ * dom.js, snapshots, screenshots and logs) goes through the transport registered for the
+ * server's address.
+ *
+ * The built-in transports are picked by {@code PERCY_TRANSPORT}:
+ * <ul>
+ *   <li>{@code apache} (default): the pooled Apache HttpClient, on every Java version.</li>
+ *   <li>{@code jdk}: {@code java.net.http.HttpClient}, on Java 11 and later. It speaks HTTP/1.1
+ *   to the CLI's cleartext address and HTTP/2 only over TLS.</li>
+ * </ul>
+ * A server address of the form {@code unix:///path/to/percy.sock} is reached over a Unix
+ * domain socket, on Java 16 and later. When the running Java version lacks a transport, the
+ * Apache one is used instead.
+ *
+ * Implementations must be thread-safe.
+ */
+public interface PercyTransport extends Closeable {
+    /**
+     * Send a request and read the whole response.
+     *
+     * @throws IOException If the server could not be reached or the exchange failed.
+     */
+    Response send(Request request) throws IOException;
+
+    /**
+     * Release pooled connections. The transport may be used again afterwards.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * @param address Base URL of the Percy CLI server.
+     * @return The transport registered for that address, creating a built-in one on first use.
+     */
+    static PercyTransport forAddress(String address) {
+        return Transports.forAddress(address);
+    }
+
+    /**
+     * Use a custom transport for a server address. Takes effect for requests made afterwards.
+     *
+     * @param address   Base URL of the Percy CLI server, as given to {@link Percy}.
+     * @param transport The transport, or null to go back to the built-in one.
+     */
+    static void register(String address, PercyTransport transport) {
+        Transports.register(address, transport);
+    }
+
+    /**
+     * A request to a CLI endpoint.
+     */
+    final class Request {
+        private final String method;
+        private final String path;
+        private final HttpEntity body;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private Duration timeout;
+        private boolean explicitTimeout = false;
+
+        private Request(String method, String path, HttpEntity body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+            this.timeout = PercyHttpClient.timeout(path);
+        }
+
+        public static Request get(String path) {
+            return new Request("GET", path, null);
+        }
+
+        public static Request post(String path, HttpEntity body) {
+            return new Request("POST", path, body);
+        }
+
+        /**
+         * Set a request header. {@code Content-Type} and {@code Content-Encoding} come from the body.
+         */
+        public Request header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * Override the endpoint's default timeout.
+         */
+        public Request timeout(Duration timeout) {
+            this.timeout = timeout;
+            this.explicitTimeout = true;
+            return this;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return The endpoint path, such as {@code /percy/snapshot}.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return The request body, or null for a GET.
+         */
+        public HttpEntity getBody() {
+            return body;
+        }
+
+        public Map<String, String> getHeaders() {
+            return Collections.unmodifiableMap(headers);
+        }
+
+        /**
+         * @return How long to wait to connect, and then for each read.
+         */
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        // True once a timeout was set, which then overrides the learned one
+        boolean hasExplicitTimeout() {
+            return explicitTimeout;
+        }
+    }
+
+    /**
+     * A fully read response.
+     */
+    final class Response {
+        private final int status;
+        private final Map<String, List<String>> headers = new LinkedHashMap<>();
+        private final byte[] body;
+
+        /**
+         * @param headers Response headers. Names are matched without regard to case.
+         */
+        public Response(int status, Map<String, List<String>> headers, byte[] body) {
+            this.status = status;
+            this.body = body == null ? new byte[0] : body;
+            headers.forEach((name, values) ->
+                this.headers.computeIfAbsent(name.toLowerCase(Locale.ROOT), key -> new ArrayList<>()).addAll(values));
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return The first value of a header, or null if it is missing.
+         */
+        public String header(String name) {
+            List<String> values = headers.get(name.toLowerCase(Locale.ROOT));
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String bodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.time.Duration;
+
+/**
+ * Package-private {@link SettleStrategy} that waits in the page for a number of consecutive
+ * animation frames with no layout shift, no fonts loading and no incomplete images.
+ *
+ * The wait is one asynchronous script, so it costs a single WebDriver round trip and returns
+ * as soon as the page is quiet. Layout shifts are only observable in Chromium; other browsers
+ * rely on the font and image checks.
+ */
+class QuietFramesSettleStrategy implements SettleStrategy {
+    private static final String WAIT_FOR_QUIET_FRAMES_JS =
+        "var done = arguments[arguments.length - 1], needed = arguments[0], timeout = arguments[1];\n" +
+        "var quiet = 0, shifted = false, finished = false, observer = null;\n" +
+        "try {\n" +
+        "  observer = new PerformanceObserver(function (list) { if (list.getEntries().length) { shifted = true; } });\n" +
+        "  observer.observe({ type: 'layout-shift' });\n" +
+        "} catch (e) { observer = null; }\n" +
+        "function busy() {\n" +
+        "  if (document.fonts && document.fonts.status === 'loading') { return true; }\n" +
+        "  for (var i = 0; i < document.images.length; i++) { if (!document.images[i].complete) { return true; } }\n" +
+        "  return false;\n" +
+        "}\n" +
+        "function finish(settled) {\n" +
+        "  if (finished) { return; }\n" +
+        "  finished = true;\n" +
+        "  if (observer) { observer.disconnect(); }\n" +
+        "  done(settled);\n" +
+        "}\n" +
+        "function frame() {\n" +
+        "  if (finished) { return; }\n" +
+        "  if (shifted || busy()) { quiet = 0; shifted = false; } else { quiet++; }\n" +
+        "  if (quiet >= needed) { return finish(true); }\n" +
+        "  requestAnimationFrame(frame);\n" +
+        "}\n" +
+        // requestAnimationFrame does not fire in hidden windows, so the timeout is a timer
+        "setTimeout(function () { finish(false); }, timeout);\n" +
+        "requestAnimationFrame(frame);";
+
+    private final int frames;
+    private final long timeoutMillis;
+
+    QuietFramesSettleStrategy(int frames, Duration timeout) {
+        this.frames = frames;
+        this.timeoutMillis = timeout.toMillis();
+    }
+
+    @Override
+    public long settle(WebDriver driver, int width) {
+        long start = System.nanoTime();
+        try {
+            Object settled = ((JavascriptExecutor) driver).executeAsyncScript(WAIT_FOR_QUIET_FRAMES_JS, frames, timeoutMillis);
+            if (!Boolean.TRUE.equals(settled)) {
+                Percy.log("Page did not settle within " + timeoutMillis + "ms for width " + width, "debug");
+            }
+        } catch (WebDriverException e) {
+            Percy.log("Waiting for the page to settle failed for width " + width + ": " + e.getMessage(), "debug");
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
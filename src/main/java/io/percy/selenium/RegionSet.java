@@ -0,0 +1,133 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.WebElement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable set of ignore and consider regions, given as CSS selectors, XPaths or elements.
+ *
+ * {@link Percy#resolveRegions(RegionSet)} finds every region in one {@code executeScript}
+ * call, however many there are:
+ *
+ * <pre>{@code
+ * RegionSet regions = RegionSet.builder()
+ *     .ignoreSelector(".timestamp")
+ *     .ignoreXpath("//div[@class='ad']")
+ *     .considerElement(header)
+ *     .build();
+ * ResolvedRegions resolved = percy.resolveRegions(regions);
+ * percy.screenshot("Home page", options, resolved);
+ * }</pre>
+ *
+ * A selector or XPath stands for every element it matches.
+ */
+public final class RegionSet {
+    private final List<Spec> specs;
+
+    private RegionSet(List<Spec> specs) {
+        this.specs = Collections.unmodifiableList(specs);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return A builder starting from these regions.
+     */
+    public Builder toBuilder() {
+        return new Builder(specs);
+    }
+
+    public int size() {
+        return specs.size();
+    }
+
+    List<Spec> specs() {
+        return specs;
+    }
+
+    // How a region is found
+    enum Locator {
+        CSS, XPATH, ELEMENT
+    }
+
+    // One region as given by the caller
+    static final class Spec {
+        final boolean ignore;
+        final Locator locator;
+        // The selector or XPath, or null for an element
+        final String selector;
+        final WebElement element;
+
+        Spec(boolean ignore, Locator locator, String selector, WebElement element) {
+            this.ignore = ignore;
+            this.locator = locator;
+            this.selector = selector;
+            this.element = element;
+        }
+    }
+
+    /**
+     * Builds a {@link RegionSet}.
+     */
+    public static final class Builder {
+        private final List<Spec> specs;
+
+        private Builder() {
+            this.specs = new ArrayList<>();
+        }
+
+        private Builder(List<Spec> specs) {
+            this.specs = new ArrayList<>(specs);
+        }
+
+        public Builder ignoreSelector(String cssSelector) {
+            return add(true, Locator.CSS, requireText(cssSelector, "CSS selector"), null);
+        }
+
+        public Builder ignoreXpath(String xpath) {
+            return add(true, Locator.XPATH, requireText(xpath, "XPath"), null);
+        }
+
+        public Builder ignoreElement(WebElement element) {
+            return add(true, Locator.ELEMENT, null, requireElement(element));
+        }
+
+        public Builder considerSelector(String cssSelector) {
+            return add(false, Locator.CSS, requireText(cssSelector, "CSS selector"), null);
+        }
+
+        public Builder considerXpath(String xpath) {
+            return add(false, Locator.XPATH, requireText(xpath, "XPath"), null);
+        }
+
+        public Builder considerElement(WebElement element) {
+            return add(false, Locator.ELEMENT, null, requireElement(element));
+        }
+
+        public RegionSet build() {
+            return new RegionSet(new ArrayList<>(specs));
+        }
+
+        private Builder add(boolean ignore, Locator locator, String selector, WebElement element) {
+            specs.add(new Spec(ignore, locator, selector, element));
+            return this;
+        }
+
+        private static String requireText(String value, String what) {
+            if (value == null || value.trim().isEmpty()) {
+                throw new IllegalArgumentException("Region " + what + " must not be empty");
+            }
+            return value;
+        }
+
+        private static WebElement requireElement(WebElement element) {
+            if (element == null) { throw new IllegalArgumentException("Region element must not be null"); }
+            return element;
+        }
+    }
+}
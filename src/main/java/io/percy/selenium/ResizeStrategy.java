@@ -0,0 +1,61 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Changes the page's viewport width during responsive capture.
+ *
+ * By default a strategy is picked once per driver class: device metrics emulation over CDP for
+ * Chromium drivers, and OS window sizing for everything else. Override it with
+ * {@link Percy#setResizeStrategy(ResizeStrategy)}, or with {@code PERCY_RESIZE_STRATEGY}:
+ * {@code auto}, {@code cdp}, {@code window} or {@code none}.
+ */
+public interface ResizeStrategy {
+    /**
+     * Give the page a viewport of the given size.
+     *
+     * @return true if the page will see a {@code resize} event.
+     */
+    boolean resize(WebDriver driver, int width, int height);
+
+    /**
+     * Return the page to its original viewport after capturing.
+     *
+     * @return true if the page will see a {@code resize} event.
+     */
+    default boolean restore(WebDriver driver, int width, int height) {
+        return resize(driver, width, height);
+    }
+
+    /**
+     * @return A strategy that emulates the viewport with CDP
+     *         {@code Emulation.setDeviceMetricsOverride}, without touching the OS window.
+     *         Only Chromium-based browsers support it.
+     */
+    static ResizeStrategy deviceMetrics() {
+        return CdpResizeStrategy.INSTANCE;
+    }
+
+    /**
+     * @return A strategy that resizes the browser window.
+     */
+    static ResizeStrategy windowSize() {
+        return WindowResizeStrategy.INSTANCE;
+    }
+
+    /**
+     * @return A strategy that leaves the viewport alone, for drivers that can't resize
+     *         (e.g. mobile sessions). Responsive capture is turned off with it: the DOM is
+     *         captured once, at the current size, and the CLI renders it at every width.
+     */
+    static ResizeStrategy none() {
+        return NoResizeStrategy.INSTANCE;
+    }
+
+    /**
+     * @return The strategy probed for this driver's class.
+     */
+    static ResizeStrategy forDriver(WebDriver driver) {
+        return ResizeStrategyProbe.forDriver(driver);
+    }
+}
@@ -0,0 +1,52 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.HasCapabilities;
+import org.openqa.selenium.WebDriver;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Package-private cache of the {@link ResizeStrategy} probed for each driver class.
+ *
+ * A {@code RemoteWebDriver} can drive any browser, so the browser name is part of the key.
+ */
+class ResizeStrategyProbe {
+    private static final ConcurrentHashMap<String, ResizeStrategy> PROBED = new ConcurrentHashMap<>();
+
+    private ResizeStrategyProbe() {
+    }
+
+    static ResizeStrategy forDriver(WebDriver driver) {
+        return PROBED.computeIfAbsent(key(driver), key -> probe(driver));
+    }
+
+    /**
+     * Stop using the probed strategy for this driver's class, after it failed.
+     */
+    static void fallBackToWindowSize(WebDriver driver) {
+        PROBED.put(key(driver), ResizeStrategy.windowSize());
+    }
+
+    private static ResizeStrategy probe(WebDriver driver) {
+        try {
+            if (CdpResizeStrategy.supports(driver)) {
+                return ResizeStrategy.deviceMetrics();
+            }
+        } catch (LinkageError | RuntimeException e) {
+            // Selenium 3 has no CDP interfaces
+            Percy.log("Could not probe CDP support: " + e, "debug");
+        }
+        return ResizeStrategy.windowSize();
+    }
+
+    private static String key(WebDriver driver) {
+        String browserName = null;
+        if (driver instanceof HasCapabilities) {
+            try {
+                browserName = ((HasCapabilities) driver).getCapabilities().getBrowserName();
+            } catch (RuntimeException ignored) {
+            }
+        }
+        return driver.getClass().getName() + "/" + browserName;
+    }
+}
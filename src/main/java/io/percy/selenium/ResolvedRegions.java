@@ -0,0 +1,187 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebElement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The elements and bounding boxes of a {@link RegionSet} on one page, from
+ * {@link Percy#resolveRegions(RegionSet)}.
+ *
+ * Resolving costs one WebDriver command. The result is immutable and can be passed to any number
+ * of {@link Percy#screenshot(String, Map, ResolvedRegions)} calls while the page stays the same.
+ * Resolve again after navigating or changing the layout.
+ */
+public final class ResolvedRegions {
+    private static final ResolvedRegions EMPTY = new ResolvedRegions(
+        Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), null);
+
+    // Finds every region in one call. Returns the page URL, and per spec a list of
+    // [element, x, y, width, height].
+    private static final String RESOLVE_JS =
+        "var specs = arguments[0], elements = arguments[1];\n" +
+        "function box(el) {\n" +
+        "  var r = el.getBoundingClientRect();\n" +
+        "  return [el, r.left + window.scrollX, r.top + window.scrollY, r.width, r.height];\n" +
+        "}\n" +
+        "return [location.href, specs.map(function (spec) {\n" +
+        "  var found = [];\n" +
+        "  try {\n" +
+        "    if (spec[0] === 'CSS') {\n" +
+        "      found = Array.prototype.slice.call(document.querySelectorAll(spec[1]));\n" +
+        "    } else if (spec[0] === 'XPATH') {\n" +
+        "      var result = document.evaluate(spec[1], document, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);\n" +
+        "      for (var i = 0; i < result.snapshotLength; i++) { found.push(result.snapshotItem(i)); }\n" +
+        "    } else {\n" +
+        "      found = [elements[spec[1]]];\n" +
+        "    }\n" +
+        "  } catch (e) {}\n" +
+        "  return found.filter(function (el) { return el && el.getBoundingClientRect; }).map(box);\n" +
+        "})];";
+
+    private final List<String> ignoreElementIds;
+    private final List<String> considerElementIds;
+    private final List<Map<String, Object>> ignoreBoxes;
+    private final List<Map<String, Object>> considerBoxes;
+    private final String url;
+
+    private ResolvedRegions(List<String> ignoreElementIds, List<String> considerElementIds,
+                            List<Map<String, Object>> ignoreBoxes, List<Map<String, Object>> considerBoxes, String url) {
+        this.ignoreElementIds = Collections.unmodifiableList(ignoreElementIds);
+        this.considerElementIds = Collections.unmodifiableList(considerElementIds);
+        this.ignoreBoxes = Collections.unmodifiableList(ignoreBoxes);
+        this.considerBoxes = Collections.unmodifiableList(considerBoxes);
+        this.url = url;
+    }
+
+    static ResolvedRegions empty() {
+        return EMPTY;
+    }
+
+    // Find every region of the set in the page with one script
+    static ResolvedRegions resolve(WebDriver driver, RegionSet regions) {
+        if (regions.size() == 0) { return EMPTY; }
+
+        List<List<String>> specs = new ArrayList<>();
+        List<WebElement> elements = new ArrayList<>();
+        for (RegionSet.Spec spec : regions.specs()) {
+            if (spec.locator == RegionSet.Locator.ELEMENT) {
+                specs.add(Arrays.asList(spec.locator.name(), String.valueOf(elements.size())));
+                elements.add(spec.element);
+            } else {
+                specs.add(Arrays.asList(spec.locator.name(), spec.selector));
+            }
+        }
+
+        MetricsRecorder.current().command();
+        List<Object> result = (List<Object>) ((JavascriptExecutor) driver).executeScript(RESOLVE_JS, specs, elements);
+        String url = result == null ? null : (String) result.get(0);
+        List<Object> found = result == null ? null : (List<Object>) result.get(1);
+
+        List<String> ignore = new ArrayList<>();
+        List<String> consider = new ArrayList<>();
+        List<Map<String, Object>> ignoreBoxes = new ArrayList<>();
+        List<Map<String, Object>> considerBoxes = new ArrayList<>();
+        for (int i = 0; i < regions.size(); i++) {
+            RegionSet.Spec spec = regions.specs().get(i);
+            List<Object> matches = found == null || i >= found.size() ? null : (List<Object>) found.get(i);
+            if (matches == null || matches.isEmpty()) {
+                Percy.log("Region " + describe(spec) + " was not found", "debug");
+                continue;
+            }
+
+            for (Object match : matches) {
+                List<Object> resolved = (List<Object>) match;
+                String id = elementId(resolved.get(0), spec);
+                if (id != null) { (spec.ignore ? ignore : consider).add(id); }
+                (spec.ignore ? ignoreBoxes : considerBoxes).add(boundingBox(resolved));
+            }
+        }
+        return new ResolvedRegions(ignore, consider, ignoreBoxes, considerBoxes, url);
+    }
+
+    /**
+     * @return IDs of the elements to ignore, for {@code ignore_region_elements}.
+     */
+    public List<String> getIgnoreElementIds() {
+        return ignoreElementIds;
+    }
+
+    /**
+     * @return IDs of the elements to consider, for {@code consider_region_elements}.
+     */
+    public List<String> getConsiderElementIds() {
+        return considerElementIds;
+    }
+
+    /**
+     * @return One bounding box per ignored element found, in CSS pixels from the top left of the
+     *         page: {@code x}, {@code y}, {@code width} and {@code height}. A box can be passed
+     *         to {@link Percy#createRegion(Map)} as {@code boundingBox}.
+     */
+    public List<Map<String, Object>> getIgnoreBoundingBoxes() {
+        return ignoreBoxes;
+    }
+
+    /**
+     * @return One bounding box per considered element found, like {@link #getIgnoreBoundingBoxes()}.
+     */
+    public List<Map<String, Object>> getConsiderBoundingBoxes() {
+        return considerBoxes;
+    }
+
+    /**
+     * @return URL of the page the regions were resolved on, or null if nothing was resolved.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    // Screenshot options with these regions added to any element regions already there
+    Map<String, Object> applyTo(Map<String, Object> options) {
+        if (ignoreElementIds.isEmpty() && considerElementIds.isEmpty()) { return options; }
+
+        Map<String, Object> applied = new HashMap<>(options);
+        merge(applied, "ignore_region_elements", ignoreElementIds);
+        merge(applied, "consider_region_elements", considerElementIds);
+        return applied;
+    }
+
+    private static void merge(Map<String, Object> options, String key, List<String> ids) {
+        if (ids.isEmpty()) { return; }
+
+        List<Object> merged = new ArrayList<>();
+        if (options.get(key) instanceof List) { merged.addAll((List<?>) options.get(key)); }
+        merged.addAll(ids);
+        options.put(key, merged);
+    }
+
+    private static String elementId(Object element, RegionSet.Spec spec) {
+        if (element instanceof RemoteWebElement) { return ((RemoteWebElement) element).getId(); }
+        // Elements passed in come back as themselves on drivers that do not return RemoteWebElement
+        if (spec.element instanceof RemoteWebElement) { return ((RemoteWebElement) spec.element).getId(); }
+        return null;
+    }
+
+    private static Map<String, Object> boundingBox(List<Object> resolved) {
+        Map<String, Object> box = new LinkedHashMap<>();
+        box.put("x", ((Number) resolved.get(1)).intValue());
+        box.put("y", ((Number) resolved.get(2)).intValue());
+        box.put("width", (int) Math.ceil(((Number) resolved.get(3)).doubleValue()));
+        box.put("height", (int) Math.ceil(((Number) resolved.get(4)).doubleValue()));
+        return Collections.unmodifiableMap(box);
+    }
+
+    private static String describe(RegionSet.Spec spec) {
+        return spec.locator == RegionSet.Locator.ELEMENT ? "element " + spec.element : spec.locator.name().toLowerCase() + " " + spec.selector;
+    }
+}
@@ -0,0 +1,217 @@
+package io.percy.selenium;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Package-private, run-scoped index of the DOM resources already uploaded to a CLI server.
+ *
+ * Each resource is keyed by the SHA-256 of its {@code content}. The first time a resource is
+ * sent it goes in full with its {@code sha256} added; after that, in later snapshots and in
+ * later widths of the same snapshot, only {@code url}, {@code mimetype} and {@code sha256} are
+ * sent and the CLI fills in the content. A CLI that no longer has a resource, for instance after
+ * a restart, answers 409 with {@code missingResources}, and the snapshot is sent again with
+ * those resources in full.
+ *
+ * Enabled with {@code PERCY_RESOURCE_DEDUP=true}, for CLIs that advertise
+ * {@code X-Percy-Resource-Dedup: sha256} on the healthcheck response.
+ */
+class ResourceIndex {
+    static final String ALGORITHM = "sha256";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getenv().getOrDefault("PERCY_RESOURCE_DEDUP", "false"));
+
+    // Hashes remembered per server; the oldest are forgotten first and simply sent in full again
+    private static final int MAX_SIZE = Settings.intValue("PERCY_RESOURCE_INDEX_SIZE", 100000, 1);
+
+    private static final ConcurrentHashMap<String, ResourceIndex> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Cache<String, Boolean> sent;
+
+    ResourceIndex(int maxSize) {
+        this.sent = new Cache<>(maxSize, Duration.ZERO);
+    }
+
+    /**
+     * @return The shared index for a CLI server, or null if deduplication is off for it.
+     */
+    static ResourceIndex forServer(PercyServerInfo serverInfo) {
+        if (!ENABLED || !serverInfo.supportsResourceDedup()) { return null; }
+        return INSTANCES.computeIfAbsent(serverInfo.getAddress(), address -> new ResourceIndex(MAX_SIZE));
+    }
+
+    /**
+     * POST a snapshot with known resources replaced by their hashes, resending it in full for
+     * any the server reports missing.
+     *
+     * @param json        Every snapshot property except {@code domSnapshot}.
+     * @param domSnapshot The serialized DOM, or a list of them for responsive capture.
+     * @param send        Posts a request body and returns the response, or null if it failed.
+     * @return The last response, or null.
+     */
+    PercyTransport.Response post(JSONObject json, Object domSnapshot, Function<HttpEntity, PercyTransport.Response> send) {
+        Prepared prepared = prepare(domSnapshot);
+        PercyTransport.Response response = send.apply(entity(json, prepared));
+
+        if (response != null && response.getStatus() == 409) {
+            invalidateMissing(body(response));
+            prepared = prepare(domSnapshot);
+            response = send.apply(entity(json, prepared));
+        }
+
+        if (response != null && response.getStatus() / 100 == 2) {
+            markSent(prepared);
+            if (prepared.deduplicated > 0) {
+                Percy.log("Sent " + prepared.deduplicated + " resources by hash, " + prepared.bytesSaved + " characters saved", "debug");
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Replace every resource the server already has, or that appears earlier in the same
+     * snapshot, by its hash. The snapshot itself is not modified.
+     */
+    Prepared prepare(Object domSnapshot) {
+        Prepared prepared = new Prepared();
+        if (domSnapshot instanceof List) {
+            List<Object> doms = new ArrayList<>();
+            for (Object dom : (List<?>) domSnapshot) {
+                doms.add(prepareDom(dom, prepared));
+            }
+            prepared.domSnapshot = doms;
+        } else {
+            prepared.domSnapshot = prepareDom(domSnapshot, prepared);
+        }
+        return prepared;
+    }
+
+    /**
+     * Record that the server accepted a prepared snapshot, and with it the resources it carried.
+     */
+    void markSent(Prepared prepared) {
+        prepared.hashes.forEach(hash -> sent.get(hash, key -> Boolean.TRUE));
+    }
+
+    /**
+     * Forget the resources a CLI answer lists as {@code missingResources}, so the next time the
+     * snapshot is prepared they go in full.
+     *
+     * @param answer The response body, or a snapshot's result in a batch response.
+     */
+    void invalidateMissing(JSONObject answer) {
+        List<String> missing = missingHashes(answer);
+        Percy.log("Percy CLI is missing " + missing.size() + " resources, sending them again", "debug");
+        missing.forEach(sent::invalidate);
+    }
+
+    /**
+     * @return true if a resource with this hash was uploaded to the server.
+     */
+    boolean contains(String hash) {
+        return sent.getIfPresent(hash) != null;
+    }
+
+    int size() {
+        return sent.size();
+    }
+
+    private Object prepareDom(Object dom, Prepared prepared) {
+        if (!(dom instanceof Map) || !(((Map<?, ?>) dom).get("resources") instanceof List)) { return dom; }
+
+        Map<String, Object> copy = new HashMap<>((Map<String, Object>) dom);
+        List<Object> resources = new ArrayList<>();
+        for (Object resource : (List<?>) copy.get("resources")) {
+            resources.add(prepareResource(resource, prepared));
+        }
+        copy.put("resources", resources);
+        return copy;
+    }
+
+    private Object prepareResource(Object resource, Prepared prepared) {
+        if (!(resource instanceof Map) || !(((Map<?, ?>) resource).get("content") instanceof String)) { return resource; }
+
+        Map<String, Object> full = (Map<String, Object>) resource;
+        String content = (String) full.get("content");
+        String hash = sha256(content);
+
+        if (prepared.hashes.contains(hash) || contains(hash)) {
+            Map<String, Object> reference = new HashMap<>(full);
+            reference.remove("content");
+            reference.put(ALGORITHM, hash);
+            prepared.deduplicated++;
+            prepared.bytesSaved += content.length();
+            return reference;
+        }
+
+        Map<String, Object> copy = new HashMap<>(full);
+        copy.put(ALGORITHM, hash);
+        prepared.hashes.add(hash);
+        return copy;
+    }
+
+    private static HttpEntity entity(JSONObject json, Prepared prepared) {
+        json.put("domSnapshot", prepared.domSnapshot);
+        return new StringEntity(json.toString(), ContentType.APPLICATION_JSON);
+    }
+
+    private static JSONObject body(PercyTransport.Response response) {
+        try {
+            return new JSONObject(response.bodyAsString());
+        } catch (JSONException ex) {
+            return new JSONObject();
+        }
+    }
+
+    private static List<String> missingHashes(JSONObject answer) {
+        JSONArray missing = answer.optJSONArray("missingResources");
+        if (missing == null) { return Collections.emptyList(); }
+
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < missing.length(); i++) {
+            String hash = missing.optString(i, null);
+            if (hash != null) { hashes.add(hash); }
+        }
+        return hashes;
+    }
+
+    static String sha256(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    // A snapshot ready to send, and the resources it carries in full
+    static final class Prepared {
+        Object domSnapshot;
+        final Set<String> hashes = new LinkedHashSet<>();
+        int deduplicated = 0;
+        long bytesSaved = 0;
+    }
+}
@@ -0,0 +1,42 @@
+package io.percy.selenium;
+
+/**
+ * Package-private reader for the numeric settings in the environment.
+ *
+ * A value that is not a number, or is below the smallest value the setting allows, is logged
+ * and replaced by the default. Settings are read in static initializers, where an exception
+ * would make the class, and with it every snapshot, fail to load.
+ */
+final class Settings {
+    private Settings() {
+    }
+
+    /**
+     * @param name         Environment variable.
+     * @param defaultValue Value when it is unset or invalid.
+     * @param min          Smallest valid value.
+     */
+    static int intValue(String name, int defaultValue, int min) {
+        return (int) parse(name, System.getenv(name), defaultValue, min, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param name         Environment variable.
+     * @param defaultValue Value when it is unset or invalid.
+     * @param min          Smallest valid value.
+     */
+    static long longValue(String name, long defaultValue, long min) {
+        return parse(name, System.getenv(name), defaultValue, min, Long.MAX_VALUE);
+    }
+
+    static long parse(String name, String value, long defaultValue, long min, long max) {
+        if (value == null || value.isEmpty()) { return defaultValue; }
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if (parsed >= min && parsed <= max) { return parsed; }
+        } catch (NumberFormatException ignored) {
+        }
+        Percy.log("Ignoring invalid " + name + "=" + value + ", using " + defaultValue, "debug");
+        return defaultValue;
+    }
+}
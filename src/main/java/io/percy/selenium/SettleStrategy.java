@@ -0,0 +1,48 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.WebDriver;
+
+import java.time.Duration;
+
+/**
+ * Decides how long responsive capture waits for the page to settle after changing width,
+ * before the DOM is serialized.
+ *
+ * Set one with {@link Percy#setSettleStrategy(SettleStrategy)}, or with
+ * {@code PERCY_RESPONSIVE_SETTLE}: {@code none}, {@code sleep:<ms>} or {@code frames:<count>}.
+ */
+public interface SettleStrategy {
+    /**
+     * Wait for the page to settle.
+     *
+     * @param driver The driver, switched to the window about to be captured.
+     * @param width  The width about to be captured.
+     * @return How long the strategy actually waited, in milliseconds.
+     */
+    long settle(WebDriver driver, int width);
+
+    /**
+     * @return A strategy that captures right away.
+     */
+    static SettleStrategy none() {
+        return (driver, width) -> 0;
+    }
+
+    /**
+     * @param delay Fixed time to wait at every width.
+     * @return A strategy that sleeps for {@code delay}.
+     */
+    static SettleStrategy sleep(Duration delay) {
+        return new SleepSettleStrategy(delay);
+    }
+
+    /**
+     * @param frames  Number of consecutive animation frames with no layout shift, no fonts
+     *                loading and no images loading.
+     * @param timeout Longest time to wait for the page to become quiet.
+     * @return A strategy that waits in the page, and returns as soon as it is stable.
+     */
+    static SettleStrategy quietFrames(int frames, Duration timeout) {
+        return new QuietFramesSettleStrategy(frames, timeout);
+    }
+}
@@ -0,0 +1,29 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.WebDriver;
+
+import java.time.Duration;
+
+/**
+ * Package-private {@link SettleStrategy} that sleeps for a fixed time.
+ */
+class SleepSettleStrategy implements SettleStrategy {
+    private final long delayMillis;
+
+    SleepSettleStrategy(Duration delay) {
+        this.delayMillis = delay.toMillis();
+    }
+
+    @Override
+    public long settle(WebDriver driver, int width) {
+        if (delayMillis <= 0) { return 0; }
+
+        long start = System.nanoTime();
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
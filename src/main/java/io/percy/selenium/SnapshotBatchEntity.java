@@ -0,0 +1,81 @@
+package io.percy.selenium;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Package-private request body for {@code /percy/snapshot/batch}: {@code {"snapshots":[...]}}
+ * with each snapshot payload streamed in from its own entity.
+ */
+class SnapshotBatchEntity extends AbstractHttpEntity {
+    private static final byte[] HEAD = "{\"snapshots\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TAIL = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private final List<HttpEntity> snapshots;
+
+    SnapshotBatchEntity(List<HttpEntity> snapshots) {
+        this.snapshots = snapshots;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return snapshots.stream().allMatch(HttpEntity::isRepeatable);
+    }
+
+    @Override
+    public long getContentLength() {
+        long length = HEAD.length + TAIL.length + Math.max(0, snapshots.size() - 1);
+        for (HttpEntity snapshot : snapshots) {
+            if (snapshot.getContentLength() < 0) { return -1; }
+            length += snapshot.getContentLength();
+        }
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        // Only used by callers that need the body in memory; requests go through writeTo
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        // Entities may close the stream they write to
+        OutputStream unclosable = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        out.write(HEAD);
+        for (int i = 0; i < snapshots.size(); i++) {
+            if (i > 0) { out.write(','); }
+            snapshots.get(i).writeTo(unclosable);
+        }
+        out.write(TAIL);
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -0,0 +1,99 @@
+package io.percy.selenium;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Metrics for one snapshot or screenshot.
+ *
+ * Phases are recorded in the order they first ran. A phase that runs more than once, such as
+ * {@code resize} in responsive capture, holds the sum of its runs. Phases:
+ * <ul>
+ *   <li>{@code domInjection} - loading dom.js and sending it to the page</li>
+ *   <li>{@code cookies} - reading the page's cookies</li>
+ *   <li>{@code resize} - changing the viewport width and waiting for the resize event</li>
+ *   <li>{@code settle} - waiting for the page to settle at a width</li>
+ *   <li>{@code serialize} - serializing the DOM and reading it back</li>
+ *   <li>{@code upload} - posting to the CLI</li>
+ * </ul>
+ */
+public final class SnapshotMetrics {
+    private final String kind;
+    private final String name;
+    private final Map<String, Duration> phases;
+    private final Duration total;
+    private final long payloadBytes;
+    private final int widthCount;
+    private final int commandCount;
+    private final int responseStatus;
+
+    SnapshotMetrics(String kind, String name, Map<String, Long> phaseNanos, long totalNanos,
+                    long payloadBytes, int widthCount, int commandCount, int responseStatus) {
+        Map<String, Duration> phases = new LinkedHashMap<>();
+        phaseNanos.forEach((phase, nanos) -> phases.put(phase, Duration.ofNanos(nanos)));
+
+        this.kind = kind;
+        this.name = name;
+        this.phases = Collections.unmodifiableMap(phases);
+        this.total = Duration.ofNanos(totalNanos);
+        this.payloadBytes = payloadBytes;
+        this.widthCount = widthCount;
+        this.commandCount = commandCount;
+        this.responseStatus = responseStatus;
+    }
+
+    /**
+     * @return {@code snapshot} or {@code screenshot}.
+     */
+    public String getKind() {
+        return kind;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Time spent in each phase.
+     */
+    public Map<String, Duration> getPhases() {
+        return phases;
+    }
+
+    /**
+     * @return Time from the start of the call to the end of the upload.
+     */
+    public Duration getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Size of the request body sent to the CLI, before compression.
+     */
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    /**
+     * @return Number of widths the DOM was captured at.
+     */
+    public int getWidthCount() {
+        return widthCount;
+    }
+
+    /**
+     * @return Number of WebDriver commands the SDK sent.
+     */
+    public int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * @return HTTP status of the CLI response, or 0 if no response was received.
+     */
+    public int getResponseStatus() {
+        return responseStatus;
+    }
+}
@@ -0,0 +1,211 @@
+package io.percy.selenium;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable options for {@link Percy#snapshot(String, SnapshotOptions)}.
+ *
+ * Options are validated and converted to JSON once, when they are built, so one instance can be
+ * shared by any number of snapshots and threads:
+ *
+ * <pre>{@code
+ * SnapshotOptions mobile = SnapshotOptions.builder().widths(375, 414).minHeight(1024).build();
+ * percy.snapshot("Home page", mobile);
+ * percy.snapshot("Checkout", mobile.toBuilder().percyCSS(".ad { display: none; }").build());
+ * }</pre>
+ *
+ * The {@code Map} overloads of {@link Percy} convert their options with {@link #fromMap(Map)}.
+ */
+public final class SnapshotOptions {
+    private static final SnapshotOptions EMPTY = new Builder().build();
+
+    private final Map<String, Object> options;
+    // The options as JSON, for PercyDOM.serialize and the snapshot payload
+    private final String json;
+    private final JSONObject payload;
+    private final String[] payloadNames;
+
+    private SnapshotOptions(Map<String, Object> options) {
+        this.options = Collections.unmodifiableMap(options);
+        this.payload = new JSONObject(options);
+        this.payloadNames = payload.keySet().toArray(new String[0]);
+        this.json = payload.toString();
+    }
+
+    /**
+     * @return Options with nothing set, so the CLI's configuration applies.
+     */
+    public static SnapshotOptions empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Options from a map, as passed to {@link Percy#snapshot(String, Map)}. Values are passed to
+     * the CLI as they are; null values are left out.
+     */
+    public static SnapshotOptions fromMap(Map<String, Object> options) {
+        if (options == null || options.isEmpty()) { return EMPTY; }
+
+        Builder builder = new Builder();
+        options.forEach(builder::option);
+        return builder.build();
+    }
+
+    /**
+     * @return A builder starting from these options.
+     */
+    public Builder toBuilder() {
+        return new Builder(options);
+    }
+
+    /**
+     * @return The widths to snapshot at, or null to use the CLI's.
+     */
+    public List<Integer> getWidths() {
+        Object widths = options.get("widths");
+        return widths instanceof List ? (List<Integer>) widths : null;
+    }
+
+    public boolean isResponsiveSnapshotCapture() {
+        return Boolean.TRUE.equals(options.get("responsiveSnapshotCapture"));
+    }
+
+    /**
+     * @return Every option that is set, unmodifiable.
+     */
+    public Map<String, Object> asMap() {
+        return options;
+    }
+
+    // The options as a JSON object literal
+    String json() {
+        return json;
+    }
+
+    // A new snapshot payload holding the options, ready for the name, URL and DOM
+    JSONObject payload() {
+        return payloadNames.length == 0 ? new JSONObject() : new JSONObject(payload, payloadNames);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof SnapshotOptions && options.equals(((SnapshotOptions) other).options);
+    }
+
+    @Override
+    public int hashCode() {
+        return options.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return json;
+    }
+
+    /**
+     * Builds {@link SnapshotOptions}. Setting an option to null unsets it.
+     */
+    public static final class Builder {
+        private final Map<String, Object> options;
+
+        private Builder() {
+            this.options = new LinkedHashMap<>();
+        }
+
+        private Builder(Map<String, Object> options) {
+            this.options = new LinkedHashMap<>(options);
+        }
+
+        /**
+         * @param widths The browser widths to snapshot at, in pixels.
+         */
+        public Builder widths(Integer... widths) {
+            return widths(widths == null ? null : Arrays.asList(widths));
+        }
+
+        public Builder widths(List<Integer> widths) {
+            if (widths == null) { return option("widths", null); }
+
+            for (Integer width : widths) {
+                if (width == null || width <= 0) {
+                    throw new IllegalArgumentException("Snapshot widths must be positive, got " + widths);
+                }
+            }
+            return option("widths", Collections.unmodifiableList(new ArrayList<>(widths)));
+        }
+
+        /**
+         * @param minHeight The minimum height of the snapshot, in pixels.
+         */
+        public Builder minHeight(Integer minHeight) {
+            if (minHeight != null && minHeight < 0) {
+                throw new IllegalArgumentException("Snapshot minHeight must not be negative, got " + minHeight);
+            }
+            return option("minHeight", minHeight);
+        }
+
+        /**
+         * @param enableJavaScript Enable JavaScript in Percy's rendering environment.
+         */
+        public Builder enableJavaScript(Boolean enableJavaScript) {
+            return option("enableJavaScript", enableJavaScript);
+        }
+
+        /**
+         * @param percyCSS CSS that is only applied in Percy's browsers.
+         */
+        public Builder percyCSS(String percyCSS) {
+            return option("percyCSS", percyCSS);
+        }
+
+        /**
+         * @param scope A CSS selector to scope the screenshot to.
+         */
+        public Builder scope(String scope) {
+            return option("scope", scope);
+        }
+
+        /**
+         * @param sync Wait for the comparison results.
+         */
+        public Builder sync(Boolean sync) {
+            return option("sync", sync);
+        }
+
+        /**
+         * @param responsiveSnapshotCapture Capture the DOM at every width.
+         */
+        public Builder responsiveSnapshotCapture(Boolean responsiveSnapshotCapture) {
+            return option("responsiveSnapshotCapture", responsiveSnapshotCapture);
+        }
+
+        /**
+         * Set any option the CLI accepts, such as {@code domTransformation} or {@code labels}.
+         */
+        public Builder option(String name, Object value) {
+            if (name == null) { throw new IllegalArgumentException("Snapshot option name must not be null"); }
+
+            if (value == null) {
+                options.remove(name);
+            } else {
+                options.put(name, value);
+            }
+            return this;
+        }
+
+        public SnapshotOptions build() {
+            return new SnapshotOptions(new LinkedHashMap<>(options));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.percy.selenium;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Package-private request body for a snapshot whose DOM was captured into {@link DomBuffer}s.
+ * The DOM is streamed into the request instead of being parsed into a {@link JSONObject}.
+ */
+class SnapshotPayloadEntity extends AbstractHttpEntity {
+    private static final byte[] SEPARATOR = ",".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] head;
+    private final List<DomBuffer> doms;
+    private final boolean isList;
+
+    /**
+     * @param payload Every snapshot property except {@code domSnapshot}.
+     * @param doms    The serialized DOMs.
+     * @param isList  Send {@code domSnapshot} as an array, as responsive capture does.
+     */
+    SnapshotPayloadEntity(JSONObject payload, List<DomBuffer> doms, boolean isList) {
+        String json = payload.toString();
+        // Reopen the object so domSnapshot can be written as its last property
+        String prefix = json.substring(0, json.length() - 1) + (payload.length() > 0 ? "," : "") + "\"domSnapshot\":" + (isList ? "[" : "");
+        this.head = prefix.getBytes(StandardCharsets.UTF_8);
+        this.doms = doms;
+        this.isList = isList;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        long length = head.length + (isList ? 2 : 1);
+        for (int i = 0; i < doms.size(); i++) {
+            length += doms.get(i).length() + (i > 0 ? SEPARATOR.length : 0);
+        }
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        // Only used by callers that need the body in memory; requests go through writeTo
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(head);
+        for (int i = 0; i < doms.size(); i++) {
+            if (i > 0) { out.write(SEPARATOR); }
+            doms.get(i).writeTo(out);
+        }
+        if (isList) { out.write(']'); }
+        out.write('}');
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
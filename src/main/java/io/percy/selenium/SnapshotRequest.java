@@ -0,0 +1,57 @@
+package io.percy.selenium;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A snapshot captured with {@link Percy#capture(String, Map)} and not uploaded yet. Pass a list
+ * of them to {@link Percy#snapshotBatch(java.util.List)} to upload them in one request.
+ *
+ * The DOM was serialized when the request was made, so the page can change in between. A
+ * request is uploaded at most once.
+ */
+public final class SnapshotRequest {
+    private final String name;
+    private final String url;
+    private final SnapshotOptions options;
+    // The serialized DOM, null if capturing it failed
+    final Object domSnapshot;
+    final MetricsRecorder metrics;
+    final boolean captured;
+    final AtomicBoolean uploaded = new AtomicBoolean();
+
+    SnapshotRequest(String name, String url, SnapshotOptions options, Object domSnapshot, MetricsRecorder metrics, boolean captured) {
+        this.name = name;
+        this.url = url;
+        this.options = options;
+        this.domSnapshot = domSnapshot;
+        this.metrics = metrics;
+        this.captured = captured;
+    }
+
+    // A request that is skipped on upload, for a disabled Percy
+    static SnapshotRequest skipped(String name) {
+        return new SnapshotRequest(name, null, SnapshotOptions.empty(), null, null, false);
+    }
+
+    /**
+     * @return The human-readable name of the snapshot.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return URL of the page when it was captured, or null if nothing was captured.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return The snapshot options.
+     */
+    public SnapshotOptions getOptions() {
+        return options;
+    }
+}
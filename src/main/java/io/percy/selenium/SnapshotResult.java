@@ -0,0 +1,101 @@
+package io.percy.selenium;
+
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle to the comparison result of a snapshot taken with
+ * {@link Percy#snapshotDeferred(String, SnapshotOptions)}.
+ *
+ * The snapshot is uploaded in {@code sync} mode in the background, and the handle completes
+ * once the CLI has rendered and compared it. The test can move on right away; the result can be
+ * checked later, or for the whole suite with {@link SnapshotResults#awaitAll(Duration)}.
+ */
+public final class SnapshotResult {
+    public enum Status {
+        // The CLI has not answered yet
+        PENDING,
+        // The CLI answered with the comparison result
+        COMPLETED,
+        // The upload or the comparison failed
+        FAILED,
+        // Percy is disabled, so nothing was captured
+        SKIPPED
+    }
+
+    private final String name;
+    private final CompletableFuture<JSONObject> future;
+    private final boolean skipped;
+
+    SnapshotResult(String name, CompletableFuture<JSONObject> future) {
+        this(name, future, false);
+    }
+
+    private SnapshotResult(String name, CompletableFuture<JSONObject> future, boolean skipped) {
+        this.name = name;
+        this.future = future;
+        this.skipped = skipped;
+    }
+
+    static SnapshotResult skipped(String name) {
+        return new SnapshotResult(name, CompletableFuture.completedFuture(null), true);
+    }
+
+    /**
+     * @return The human-readable name of the snapshot.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public Status getStatus() {
+        if (skipped) { return Status.SKIPPED; }
+        if (!future.isDone()) { return Status.PENDING; }
+        return future.join() == null ? Status.FAILED : Status.COMPLETED;
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * @return The CLI's comparison data, or null if it is pending, failed or skipped.
+     */
+    public JSONObject getData() {
+        return future.getNow(null);
+    }
+
+    /**
+     * Wait for the comparison.
+     *
+     * @param timeout Maximum time to wait.
+     * @return The CLI's comparison data, or null if the snapshot failed or was skipped.
+     * @throws TimeoutException If the CLI did not answer in time.
+     */
+    public JSONObject get(Duration timeout) throws TimeoutException, InterruptedException {
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // Uploads complete with null instead of failing
+            return null;
+        }
+    }
+
+    /**
+     * @return A future completed with the comparison data, or with null if the snapshot failed.
+     */
+    public CompletableFuture<JSONObject> toFuture() {
+        // A dependent future, so callers cannot complete this handle
+        return future.thenApply(data -> data);
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + getStatus() + ")";
+    }
+}
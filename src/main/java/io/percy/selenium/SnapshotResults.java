@@ -0,0 +1,113 @@
+package io.percy.selenium;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Collects the {@link SnapshotResult}s of a test suite, so the comparisons can be awaited and
+ * reported together at the end of the run:
+ *
+ * <pre>{@code
+ * percy.snapshotDeferred("Home page");
+ * ...
+ * // e.g. in @AfterAll
+ * SnapshotResults.getDefault().awaitAll(Duration.ofMinutes(10));
+ * }</pre>
+ *
+ * Results are kept until {@link #awaitAll(Duration)} reports them as done, so a long run that
+ * awaits its results, e.g. after each test class, does not hold on to all of them.
+ */
+public final class SnapshotResults {
+    private static final SnapshotResults DEFAULT = new SnapshotResults();
+
+    private final ConcurrentLinkedQueue<SnapshotResult> results = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @return The collector that {@link Percy#snapshotDeferred(String, SnapshotOptions)} adds to.
+     */
+    public static SnapshotResults getDefault() {
+        return DEFAULT;
+    }
+
+    public void add(SnapshotResult result) {
+        results.add(result);
+    }
+
+    /**
+     * @return Every result added and not yet reported as done, in order.
+     */
+    public List<SnapshotResult> getResults() {
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * Forget every result, e.g. between suites.
+     */
+    public void clear() {
+        results.clear();
+    }
+
+    /**
+     * Wait for every result to complete, then log a summary: how many completed, failed or are
+     * still pending, with the names of the failed and pending snapshots. Results that are done are
+     * removed; pending ones are kept for the next call.
+     *
+     * @param timeout Maximum time to wait.
+     * @return Every result, in order. Results the CLI did not answer in time are still pending.
+     */
+    public List<SnapshotResult> awaitAll(Duration timeout) {
+        List<SnapshotResult> all = getResults();
+        CompletableFuture<?>[] futures = all.stream().map(SnapshotResult::toFuture).toArray(CompletableFuture<?>[]::new);
+        try {
+            CompletableFuture.allOf(futures).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Percy.log("Timed out waiting for Percy comparison results");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Percy.log(e.toString(), "debug");
+        }
+
+        // Taken before reporting, so a result is never dropped without being reported as done
+        Set<SnapshotResult> done = Collections.newSetFromMap(new IdentityHashMap<>());
+        all.stream().filter(result -> result.getStatus() != SnapshotResult.Status.PENDING).forEach(done::add);
+        report(all);
+        results.removeIf(done::contains);
+        return all;
+    }
+
+    private static void report(List<SnapshotResult> results) {
+        int completed = 0;
+        List<String> failed = new ArrayList<>();
+        List<String> pending = new ArrayList<>();
+        for (SnapshotResult result : results) {
+            switch (result.getStatus()) {
+                case COMPLETED:
+                    completed++;
+                    Percy.log("Comparison result for " + result.getName() + ": " + result.getData(), "debug");
+                    break;
+                case FAILED:
+                    failed.add(result.getName());
+                    break;
+                case PENDING:
+                    pending.add(result.getName());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (results.isEmpty()) { return; }
+        Percy.log("Comparison results: " + completed + " completed, " + failed.size() + " failed, " + pending.size() + " pending");
+        if (!failed.isEmpty()) { Percy.log("Failed snapshots: " + String.join(", ", failed)); }
+        if (!pending.isEmpty()) { Percy.log("Pending snapshots: " + String.join(", ", pending)); }
+    }
+}
@@ -0,0 +1,313 @@
+package io.percy.selenium;
+
+import org.json.JSONObject;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Package-private, process-wide queue that POSTs captured snapshots to the Percy CLI
+ * off the test thread.
+ *
+ * The queue is bounded. When it is full the upload runs on the submitting thread, so a
+ * slow CLI applies back-pressure instead of letting captured DOMs pile up in memory.
+ *
+ * With {@code PERCY_UPLOAD_BATCH_SIZE} above 1, snapshots are grouped into batches of up to
+ * that many, and a batch is uploaded once it is full or {@code PERCY_UPLOAD_BATCH_LINGER_MS}
+ * after its first snapshot, whichever comes first.
+ *
+ * Snapshots from {@link Percy#snapshotDeferred(String, SnapshotOptions)} go through a second
+ * queue, {@link #getSyncInstance()}, since each of their uploads waits for the comparison and
+ * would hold up ordinary uploads. That queue is unbounded: a deferred snapshot never waits for
+ * the comparisons of earlier ones.
+ */
+class SnapshotUploader {
+    // Number of uploads that may be waiting for a free worker
+    private static final int QUEUE_SIZE = Settings.intValue("PERCY_UPLOAD_QUEUE_SIZE", 32, 1);
+
+    // Number of concurrent uploads to the CLI
+    private static final int CONCURRENCY = Settings.intValue("PERCY_UPLOAD_CONCURRENCY", 2, 1);
+
+    // Snapshots per batch upload, 1 to upload each snapshot on its own
+    private static final int BATCH_SIZE = Settings.intValue("PERCY_UPLOAD_BATCH_SIZE", 1, 1);
+
+    // Time an incomplete batch waits for more snapshots
+    private static final long BATCH_LINGER_MS = Settings.longValue("PERCY_UPLOAD_BATCH_LINGER_MS", 100, 0);
+
+    // Number of sync uploads waiting for their comparison at once
+    private static final int SYNC_CONCURRENCY = Settings.intValue("PERCY_SYNC_CONCURRENCY", 8, 1);
+
+    // Uploads batches that stopped filling up
+    private static final ScheduledExecutorService LINGER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "percy-upload-linger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Seconds the shutdown hook waits for pending uploads
+    static final Duration FLUSH_TIMEOUT = Duration.ofSeconds(Settings.longValue("PERCY_UPLOAD_FLUSH_TIMEOUT", 600, 0));
+
+    // Runs an upload the pool turned down on the submitting thread. With a full queue that is the
+    // back-pressure; after close() it keeps an upload racing the shutdown from being dropped,
+    // which CallerRunsPolicy would do.
+    private static final RejectedExecutionHandler RUN_INLINE = (task, pool) -> task.run();
+
+    private static SnapshotUploader instance;
+    private static SnapshotUploader syncInstance;
+    private static boolean shutdownHookAdded = false;
+
+    private final ThreadPoolExecutor executor;
+    private final Set<CompletableFuture<JSONObject>> pending = ConcurrentHashMap.newKeySet();
+    private final int batchSize;
+    private final long batchLingerMs;
+    private final ConcurrentHashMap<Object, Batch<?>> openBatches = new ConcurrentHashMap<>();
+
+    // queueSize 0 for an unbounded queue
+    SnapshotUploader(int concurrency, int queueSize) {
+        this(concurrency, queueSize, 1, 0);
+    }
+
+    SnapshotUploader(int concurrency, int queueSize, int batchSize, long batchLingerMs) {
+        this.batchSize = batchSize;
+        this.batchLingerMs = batchLingerMs;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "percy-upload-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        this.executor = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS,
+            queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new LinkedBlockingQueue<>(), threadFactory, RUN_INLINE);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return The shared uploader, created on first use or after it has been closed.
+     */
+    static synchronized SnapshotUploader getInstance() {
+        if (instance == null || instance.executor.isShutdown()) {
+            instance = new SnapshotUploader(CONCURRENCY, QUEUE_SIZE, BATCH_SIZE, BATCH_LINGER_MS);
+        }
+        addShutdownHook();
+        return instance;
+    }
+
+    /**
+     * @return The shared uploader for sync snapshots, created on first use or after it has been closed.
+     */
+    static synchronized SnapshotUploader getSyncInstance() {
+        if (syncInstance == null || syncInstance.executor.isShutdown()) {
+            syncInstance = new SnapshotUploader(SYNC_CONCURRENCY, 0);
+        }
+        addShutdownHook();
+        return syncInstance;
+    }
+
+    private static void addShutdownHook() {
+        if (!shutdownHookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> closeInstance(FLUSH_TIMEOUT), "percy-upload-shutdown"));
+            shutdownHookAdded = true;
+        }
+    }
+
+    /**
+     * Wait for the uploads of both shared uploaders that were created.
+     *
+     * @return true if all uploads finished before the deadline.
+     */
+    static boolean flushInstances(Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        SnapshotUploader uploader;
+        SnapshotUploader syncUploader;
+        synchronized (SnapshotUploader.class) {
+            uploader = instance;
+            syncUploader = syncInstance;
+        }
+        boolean drained = uploader == null || uploader.flush(timeout);
+        return (syncUploader == null || syncUploader.flush(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())))) && drained;
+    }
+
+    /**
+     * Drains and stops the shared uploaders, if they were ever created.
+     */
+    static void closeInstance(Duration timeout) {
+        SnapshotUploader uploader;
+        SnapshotUploader syncUploader;
+        synchronized (SnapshotUploader.class) {
+            uploader = instance;
+            syncUploader = syncInstance;
+            instance = null;
+            syncInstance = null;
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        if (uploader != null) {
+            uploader.close(timeout);
+        }
+        if (syncUploader != null) {
+            syncUploader.close(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+        }
+    }
+
+    /**
+     * Queue an upload.
+     *
+     * @param name   The snapshot name, used for logging.
+     * @param upload Performs the POST and returns the CLI response data.
+     * @return A future completed with the CLI response data, or with null if the upload failed.
+     */
+    CompletableFuture<JSONObject> submit(String name, Supplier<JSONObject> upload) {
+        CompletableFuture<JSONObject> future = new CompletableFuture<>();
+        pending.add(future);
+
+        Runnable task = () -> {
+            JSONObject data = null;
+            try {
+                data = upload.get();
+            } catch (Throwable ex) {
+                Percy.log("Could not post snapshot " + name);
+                Percy.log(ex.toString(), "debug");
+            } finally {
+                // Leave the pending set before completing so flush() never sees a finished upload
+                pending.remove(future);
+                future.complete(data);
+            }
+        };
+
+        executor.execute(task);
+        return future;
+    }
+
+    /**
+     * @return true if snapshots should go through {@link #submitBatched}.
+     */
+    boolean isBatching() {
+        return batchSize > 1;
+    }
+
+    /**
+     * Add an item to the open batch for a key, starting one if there is none. Items are
+     * uploaded together once the batch is full or has waited long enough.
+     *
+     * @param key    Items with the same key share batches.
+     * @param item   The item to upload.
+     * @param upload Uploads a batch and returns the CLI response data for each item, in order.
+     * @return A future completed with the item's response data, or with null if it failed.
+     */
+    <T> CompletableFuture<JSONObject> submitBatched(Object key, T item, Function<List<T>, List<JSONObject>> upload) {
+        CompletableFuture<JSONObject> future = new CompletableFuture<>();
+        pending.add(future);
+
+        AtomicReference<Batch<T>> full = new AtomicReference<>();
+        openBatches.compute(key, (k, open) -> {
+            Batch<T> batch = open == null ? new Batch<>(upload) : (Batch<T>) open;
+            batch.items.add(item);
+            batch.futures.add(future);
+            if (open == null) {
+                LINGER.schedule(() -> dispatch(key, batch), batchLingerMs, TimeUnit.MILLISECONDS);
+            }
+            if (batch.items.size() < batchSize) { return batch; }
+
+            full.set(batch);
+            return null;
+        });
+        if (full.get() != null) { dispatch(full.get()); }
+        return future;
+    }
+
+    private void dispatch(Object key, Batch<?> batch) {
+        // The batch may already have been sent because it filled up
+        if (openBatches.remove(key, batch)) { dispatch(batch); }
+    }
+
+    private <T> void dispatch(Batch<T> batch) {
+        Runnable task = () -> {
+            List<JSONObject> results = null;
+            try {
+                results = batch.upload.apply(batch.items);
+            } catch (Throwable ex) {
+                Percy.log("Could not post a batch of " + batch.items.size() + " snapshots");
+                Percy.log(ex.toString(), "debug");
+            } finally {
+                for (int i = 0; i < batch.futures.size(); i++) {
+                    CompletableFuture<JSONObject> future = batch.futures.get(i);
+                    pending.remove(future);
+                    future.complete(results != null && i < results.size() ? results.get(i) : null);
+                }
+            }
+        };
+
+        executor.execute(task);
+    }
+
+    /**
+     * @return Number of uploads that are queued or in flight.
+     */
+    int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Wait for every queued upload to finish.
+     *
+     * @param timeout Maximum time to wait.
+     * @return true if the queue drained before the deadline.
+     */
+    boolean flush(Duration timeout) {
+        // Send open batches now instead of waiting for them to fill up
+        openBatches.forEach(this::dispatch);
+
+        CompletableFuture<?>[] inFlight = pending.toArray(new CompletableFuture<?>[0]);
+        if (inFlight.length == 0) { return true; }
+
+        try {
+            CompletableFuture.allOf(inFlight).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            Percy.log("Timed out waiting for " + pending.size() + " snapshot upload(s) to finish");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Percy.log(e.toString(), "debug");
+        }
+        return false;
+    }
+
+    /**
+     * Flush pending uploads and stop the worker threads.
+     */
+    boolean close(Duration timeout) {
+        boolean drained = flush(timeout);
+        executor.shutdown();
+        return drained;
+    }
+
+    // Items waiting to be uploaded together
+    private static final class Batch<T> {
+        final List<T> items = new ArrayList<>();
+        final List<CompletableFuture<JSONObject>> futures = new ArrayList<>();
+        final Function<List<T>, List<JSONObject>> upload;
+
+        Batch(Function<List<T>, List<JSONObject>> upload) {
+            this.upload = upload;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package io.percy.selenium;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Package-private registry behind {@link PercyTransport#forAddress(String)}.
+ *
+ * The JDK and Unix socket transports are compiled for Java 11 and 16 into
+ * {@code META-INF/versions} of the multi-release jar, so they are loaded by name. On an older
+ * Java the class is not visible and the Apache transport is used instead.
+ */
+final class Transports {
+    // `apache` or `jdk`
+    private static final String TRANSPORT = System.getenv().getOrDefault("PERCY_TRANSPORT", "apache");
+
+    static final String UNIX_SCHEME = "unix://";
+
+    private static final ConcurrentHashMap<String, PercyTransport> INSTANCES = new ConcurrentHashMap<>();
+
+    private Transports() {
+    }
+
+    static PercyTransport forAddress(String address) {
+        return INSTANCES.computeIfAbsent(address, key -> create(key, TRANSPORT));
+    }
+
+    static void register(String address, PercyTransport transport) {
+        if (transport == null) {
+            INSTANCES.remove(address);
+        } else {
+            INSTANCES.put(address, transport);
+        }
+    }
+
+    static PercyTransport create(String address, String kind) {
+        if (address.startsWith(UNIX_SCHEME)) {
+            return load("io.percy.selenium.UnixSocketTransport", address, "Unix domain sockets need Java 16 or later");
+        }
+        if ("jdk".equals(kind)) {
+            return load("io.percy.selenium.JdkHttpTransport", address, "PERCY_TRANSPORT=jdk needs Java 11 or later");
+        }
+        if (!"apache".equals(kind)) {
+            Percy.log("Unknown PERCY_TRANSPORT " + kind + ", using apache", "debug");
+        }
+        return new ApacheTransport(address);
+    }
+
+    private static PercyTransport load(String className, String address, String unsupported) {
+        try {
+            return (PercyTransport) Class.forName(className)
+                .getDeclaredConstructor(String.class)
+                .newInstance(address);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            Percy.log(unsupported + ", falling back to the default transport");
+            Percy.log(ex.toString(), "debug");
+            return new ApacheTransport(address);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package io.percy.selenium;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Package-private HTTP/1.1 transport over a Unix domain socket, compiled for Java 16. Used for
+ * server addresses of the form {@code unix:///path/to/percy.sock}, when the CLI runs on the
+ * same host, so no TCP connection is set up at all.
+ *
+ * Idle connections are kept for reuse, up to {@code PERCY_HTTP_MAX_CONNECTIONS}. Socket channels
+ * have no read timeout, so a request that runs past its timeout has its connection closed.
+ */
+class UnixSocketTransport implements PercyTransport {
+    private static final int MAX_IDLE = PercyHttpClient.MAX_CONNECTIONS;
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    // Closes connections whose request ran past its timeout
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "percy-transport-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final UnixDomainSocketAddress socket;
+    private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+
+    UnixSocketTransport(String address) {
+        this.socket = UnixDomainSocketAddress.of(Path.of(address.substring(Transports.UNIX_SCHEME.length())));
+    }
+
+    @Override
+    public Response send(Request request) throws IOException {
+        Connection connection = idle.pollFirst();
+        if (connection != null) {
+            try {
+                return exchange(connection, request);
+            } catch (IOException ex) {
+                // The server may have closed the idle connection, retry once on a new one
+                if (!isStale(connection, request)) { throw ex; }
+            }
+        }
+        return exchange(new Connection(socket), request);
+    }
+
+    // A pooled connection that failed before any response came back, and not because the request
+    // ran out of time, was closed by the server while idle; the request did not get processed
+    private static boolean isStale(Connection connection, Request request) {
+        HttpEntity body = request.getBody();
+        return !connection.expired && !connection.responded && (body == null || body.isRepeatable());
+    }
+
+    @Override
+    public void close() {
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.close();
+        }
+    }
+
+    private Response exchange(Connection connection, Request request) throws IOException {
+        ScheduledFuture<?> timeout = WATCHDOG.schedule(connection::expire, request.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            writeRequest(connection.out, request);
+            Response response = readResponse(connection.in, connection);
+            if (timeout.cancel(false) && connection.reusable && idle.size() < MAX_IDLE) {
+                idle.offerFirst(connection);
+            } else {
+                connection.close();
+            }
+            return response;
+        } catch (IOException | RuntimeException ex) {
+            timeout.cancel(false);
+            connection.close();
+            throw ex;
+        }
+    }
+
+    private static void writeRequest(OutputStream out, Request request) throws IOException {
+        HttpEntity body = request.getBody();
+        StringBuilder head = new StringBuilder()
+            .append(request.getMethod()).append(' ').append(request.getPath()).append(" HTTP/1.1\r\n")
+            .append("Host: localhost\r\n");
+        request.getHeaders().forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+
+        boolean chunked = false;
+        if (body != null) {
+            appendHeader(head, body.getContentType());
+            appendHeader(head, body.getContentEncoding());
+            if (body.getContentLength() >= 0) {
+                head.append("Content-Length: ").append(body.getContentLength()).append("\r\n");
+            } else {
+                head.append("Transfer-Encoding: chunked\r\n");
+                chunked = true;
+            }
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        if (body != null) {
+            if (chunked) {
+                ChunkedOutputStream chunks = new ChunkedOutputStream(out);
+                body.writeTo(chunks);
+                chunks.finish();
+            } else {
+                body.writeTo(out);
+            }
+        }
+        out.flush();
+    }
+
+    private static Response readResponse(InputStream in, Connection connection) throws IOException {
+        in.mark(1);
+        if (in.read() == -1) { throw new IOException("Connection closed by the server"); }
+        connection.responded = true;
+        in.reset();
+
+        String statusLine = readLine(in);
+        String[] status = statusLine.split(" ", 3);
+        if (status.length < 2 || !status[0].startsWith("HTTP/1.")) {
+            throw new IOException("Unexpected response: " + statusLine);
+        }
+
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) { continue; }
+            headers.computeIfAbsent(line.substring(0, colon).trim(), name -> new ArrayList<>()).add(line.substring(colon + 1).trim());
+        }
+        Response head = new Response(Integer.parseInt(status[1]), headers, null);
+        connection.reusable = !"close".equalsIgnoreCase(head.header("Connection")) && !"HTTP/1.0".equals(status[0]);
+
+        byte[] body;
+        if ("chunked".equalsIgnoreCase(head.header("Transfer-Encoding"))) {
+            body = readChunked(in);
+        } else if (head.header("Content-Length") != null) {
+            body = in.readNBytes(Integer.parseInt(head.header("Content-Length")));
+        } else if (head.getStatus() == 204 || head.getStatus() == 304) {
+            body = new byte[0];
+        } else {
+            // The body runs until the server closes the connection
+            body = in.readAllBytes();
+            connection.reusable = false;
+        }
+        return new Response(head.getStatus(), headers, body);
+    }
+
+    private static byte[] readChunked(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String size = readLine(in);
+            int semicolon = size.indexOf(';');
+            int length = Integer.parseInt((semicolon < 0 ? size : size.substring(0, semicolon)).trim(), 16);
+            if (length == 0) { break; }
+            body.write(in.readNBytes(length));
+            readLine(in);
+        }
+        // Skip trailers
+        while (!readLine(in).isEmpty()) {
+            // Nothing to keep
+        }
+        return body.toByteArray();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) { throw new IOException("Connection closed by the server"); }
+            if (b != '\r') { line.write(b); }
+        }
+        return line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    private static void appendHeader(StringBuilder head, Header header) {
+        if (header != null) { head.append(header.getName()).append(": ").append(header.getValue()).append("\r\n"); }
+    }
+
+    // One socket connection and its buffered streams
+    private static final class Connection {
+        final SocketChannel channel;
+        final InputStream in;
+        final OutputStream out;
+        boolean reusable = false;
+        // Set once the first byte of the response came back
+        boolean responded = false;
+        // Set when the request ran past its timeout
+        volatile boolean expired = false;
+
+        Connection(UnixDomainSocketAddress address) throws IOException {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(address);
+            } catch (IOException ex) {
+                channel.close();
+                throw ex;
+            }
+            in = new BufferedInputStream(Channels.newInputStream(channel), 16 * 1024);
+            out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+        }
+
+        void expire() {
+            expired = true;
+            close();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Writes a body of unknown length as HTTP/1.1 chunks
+    private static final class ChunkedOutputStream extends FilterOutputStream {
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) { return; }
+            out.write(Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1));
+            out.write(CRLF);
+            out.write(b, off, len);
+            out.write(CRLF);
+        }
+
+        // Ends the body without closing the connection
+        void finish() throws IOException {
+            out.write('0');
+            out.write(CRLF);
+            out.write(CRLF);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.WebDriver;
+
+/**
+ * Package-private {@link ResizeStrategy} that resizes the OS window.
+ */
+class WindowResizeStrategy implements ResizeStrategy {
+    static final WindowResizeStrategy INSTANCE = new WindowResizeStrategy();
+
+    @Override
+    public boolean resize(WebDriver driver, int width, int height) {
+        driver.manage().window().setSize(new Dimension(width, height));
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+package io.percy.selenium;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+import org.openqa.selenium.support.ui.WebDriverWait;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Package-private responsive capture that opens one browser window per width instead of
+ * resizing the current window once per width.
+ *
+ * All windows are opened from the current page in one {@code executeScript} call, so the
+ * browser loads and lays them out concurrently. They share cookies and
+ * localStorage with the current page, and get a copy of its sessionStorage. In-memory page
+ * state is not copied. A WebDriver session runs one command at a time, so the windows are then
+ * serialized one after another, with no resize or resize wait in between. A window the browser
+ * did not give the width asked for fails the capture, so it falls back to resizing.
+ */
+class WindowedCapture {
+    private static final String WINDOW_NAME_PREFIX = "percy-width-";
+
+    // Opens one window per width, sized by its content width
+    private static final String OPEN_WINDOWS_JS =
+        "var widths = arguments[0], height = arguments[1], opened = 0;\n" +
+        "for (var i = 0; i < widths.length; i++) {\n" +
+        "  var features = 'width=' + widths[i] + ',height=' + height;\n" +
+        "  if (window.open(location.href, '" + WINDOW_NAME_PREFIX + "' + widths[i], features)) { opened++; }\n" +
+        "}\n" +
+        "return opened;";
+
+    // The window's name once it has left the initial about:blank and finished loading, else null
+    private static final String LOADED_WINDOW_NAME_JS =
+        "return document.readyState === 'complete' && location.href !== 'about:blank' ? window.name : null;";
+
+    // Browsers may clamp or ignore the width asked for, e.g. to a minimum popup width
+    private static final String INNER_WIDTH_JS = "return window.innerWidth;";
+
+    // Time a new window gets to finish loading
+    private static final Duration LOAD_TIMEOUT = Duration.ofSeconds(30);
+
+    private WindowedCapture() {
+    }
+
+    /**
+     * Capture the current page at every width in its own window.
+     *
+     * @param widths    Widths to capture, in order.
+     * @param height    Window height for the new windows.
+     * @param settle    Called for each width, with its window current, just before capturing it.
+     * @param capture   Serializes the current window for a width.
+     * @return One capture per width, in the order of {@code widths}, or null if the windows
+     *         could not be opened at those widths (e.g. a popup blocker or a minimum window
+     *         width), in which case nothing was captured.
+     */
+    static <T> List<T> capture(WebDriver driver, List<Integer> widths, int height, IntConsumer settle, IntFunction<T> capture) {
+        MetricsRecorder metrics = MetricsRecorder.current();
+        metrics.command();
+        String original = driver.getWindowHandle();
+        Set<String> before = new HashSet<>(driver.getWindowHandles());
+        Set<String> opened = new HashSet<>();
+
+        try {
+            metrics.command();
+            ((JavascriptExecutor) driver).executeScript(OPEN_WINDOWS_JS, widths, height);
+            metrics.command();
+            opened.addAll(driver.getWindowHandles());
+            opened.removeAll(before);
+
+            if (opened.size() != widths.size()) {
+                Percy.log("Opened " + opened.size() + " of " + widths.size() + " responsive capture windows, falling back to resizing", "debug");
+                return null;
+            }
+
+            Map<Integer, String> windowsByWidth = new HashMap<>();
+            for (String handle : opened) {
+                metrics.command();
+                driver.switchTo().window(handle);
+                String name = waitForLoad(driver);
+                if (name == null || !name.startsWith(WINDOW_NAME_PREFIX)) {
+                    Percy.log("Unexpected window while capturing responsive DOM, falling back to resizing", "debug");
+                    return null;
+                }
+                int width = Integer.parseInt(name.substring(WINDOW_NAME_PREFIX.length()));
+                metrics.command();
+                Object innerWidth = ((JavascriptExecutor) driver).executeScript(INNER_WIDTH_JS);
+                if (!(innerWidth instanceof Number) || ((Number) innerWidth).intValue() != width) {
+                    Percy.log("Responsive capture window for width " + width + " opened at " + innerWidth + ", falling back to resizing", "debug");
+                    return null;
+                }
+                windowsByWidth.put(width, handle);
+            }
+
+            List<T> domSnapshots = new ArrayList<>();
+            for (int width : widths) {
+                metrics.command();
+                driver.switchTo().window(windowsByWidth.get(width));
+                settle.accept(width);
+                domSnapshots.add(capture.apply(width));
+            }
+            return domSnapshots;
+        } finally {
+            for (String handle : opened) {
+                try {
+                    driver.switchTo().window(handle);
+                    driver.close();
+                } catch (WebDriverException e) {
+                    Percy.log("Could not close responsive capture window: " + e.getMessage(), "debug");
+                }
+            }
+            driver.switchTo().window(original);
+        }
+    }
+
+    // Wait for the window to load the page, and return its name
+    private static String waitForLoad(WebDriver driver) {
+        try {
+            return new WebDriverWait(driver, LOAD_TIMEOUT).until((ExpectedCondition<String>) d ->
+                (String) ((JavascriptExecutor) d).executeScript(LOADED_WINDOW_NAME_JS));
+        } catch (WebDriverException e) {
+            Percy.log("Timed out waiting for responsive capture window to load", "debug");
+            return null;
+        }
+    }
+}
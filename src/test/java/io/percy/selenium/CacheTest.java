@@ -4,6 +4,7 @@ import java.io.IOException;
 
 //import org.junit.Assert;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -12,7 +13,15 @@ import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.remote.*;
 import static org.mockito.Mockito.*;
 import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CacheTest {
     private static RemoteWebDriver mockedDriver;
@@ -32,30 +41,96 @@ public class CacheTest {
         when(mockedDriver.getCapabilities()).thenReturn(capabilities);
     }
 
+    @BeforeEach
+    public void clearCaches() {
+        DriverMetadata.invalidateSession("123");
+    }
+
     @Test
     public void testSessionId() {
-        Cache.CACHE_MAP.clear();
         DriverMetadata driverMetadata = new DriverMetadata((WebDriver) mockedDriver);
         assertEquals(driverMetadata.getSessionId(), "123");
     }
 
     @Test
     public void testCapabilities() {
-        Cache.CACHE_MAP.clear();
         DriverMetadata driverMetadata = new DriverMetadata((WebDriver) mockedDriver);
-        String key = "capabilities_"+driverMetadata.getSessionId();
-        assertNull(Cache.CACHE_MAP.get(key));
+        String key = driverMetadata.getSessionId();
+        assertNull(DriverMetadata.getCapabilitiesCache().getIfPresent(key));
         ConcurrentHashMap<String, String> caps = driverMetadata.getCapabilities();
-        assertEquals(Cache.CACHE_MAP.get(key), caps);
+        assertEquals(DriverMetadata.getCapabilitiesCache().getIfPresent(key), caps);
     }
 
     @Test
     public void testCommandExecutorUrl() {
-        Cache.CACHE_MAP.clear();
         DriverMetadata driverMetadata = new DriverMetadata(mockedDriver);
-        String key = "commandExecutorUrl_"+driverMetadata.getSessionId();
-        assertNull(Cache.CACHE_MAP.get(key));
+        String key = driverMetadata.getSessionId();
+        assertNull(DriverMetadata.getCommandExecutorUrlCache().getIfPresent(key));
         String commandExecutorUrl = driverMetadata.getCommandExecutorUrl();
-        assertEquals(Cache.CACHE_MAP.get(key), commandExecutorUrl);
+        assertEquals(DriverMetadata.getCommandExecutorUrlCache().getIfPresent(key), commandExecutorUrl);
+    }
+
+    @Test
+    public void testInvalidateSession() {
+        DriverMetadata driverMetadata = new DriverMetadata(mockedDriver);
+        driverMetadata.getCapabilities();
+        driverMetadata.getCommandExecutorUrl();
+
+        DriverMetadata.invalidateSession("123");
+        assertNull(DriverMetadata.getCapabilitiesCache().getIfPresent("123"));
+        assertNull(DriverMetadata.getCommandExecutorUrlCache().getIfPresent("123"));
+    }
+
+    @Test
+    public void testLoadsOncePerKey() throws Exception {
+        Cache<String, String> cache = new Cache<>(10, Duration.ZERO);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return cache.get("key", key -> {
+                    loads.incrementAndGet();
+                    return "value";
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertEquals("value", result.get());
+        }
+        executor.shutdown();
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.missCount());
+        assertEquals(7, cache.hitCount());
+    }
+
+    @Test
+    public void testEvictsOldestWhenFull() {
+        Cache<String, String> cache = new Cache<>(2, Duration.ZERO);
+        cache.get("a", key -> "1");
+        cache.get("b", key -> "2");
+        cache.get("c", key -> "3");
+
+        assertEquals(2, cache.size());
+        assertNull(cache.getIfPresent("a"));
+        assertEquals("3", cache.getIfPresent("c"));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void testReloadsExpiredEntries() throws Exception {
+        Cache<String, String> cache = new Cache<>(10, Duration.ofMillis(20));
+        cache.get("a", key -> "1");
+        Thread.sleep(40);
+
+        assertNull(cache.getIfPresent("a"));
+        assertEquals("2", cache.get("a", key -> "2"));
+        assertEquals(1, cache.evictionCount());
+        assertEquals(2, cache.missCount());
     }
 }
@@ -0,0 +1,197 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CircuitBreakerTest {
+    private CliSimulator cli;
+    private String address;
+
+    @BeforeEach
+    public void startCli() throws IOException {
+        cli = CliSimulator.start().recordSnapshots(true);
+        address = cli.address();
+    }
+
+    @AfterEach
+    public void stopCli() {
+        CircuitBreaker.register(address, null);
+        PercyTransport.register(address, null);
+        cli.stop();
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailuresAndFailsFast() {
+        CircuitBreaker breaker = new CircuitBreaker(address, 3, 60000, 0, 30000, 60000);
+        cli.down(true);
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IOException.class, () -> breaker.send(log()));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        long sent = cli.requestCount("/percy/log");
+        assertThrows(IOException.class, () -> breaker.send(log()));
+        assertEquals(sent, cli.requestCount("/percy/log"));
+    }
+
+    @Test
+    public void retriesOnlyRequestsThatAreSafeToRepeat() {
+        CircuitBreaker breaker = new CircuitBreaker(address, 0, 60000, 2, 30000, 60000);
+        List<String> attempts = new CopyOnWriteArrayList<>();
+        PercyTransport.register(address, request -> {
+            attempts.add(request.getPath());
+            throw request.getPath().equals("/percy/dom.js") ? new ConnectException("refused") : new SocketTimeoutException("read timed out");
+        });
+
+        assertThrows(ConnectException.class, () -> breaker.send(PercyTransport.Request.get("/percy/dom.js")));
+        assertThrows(SocketTimeoutException.class, () -> breaker.send(log()));
+
+        assertEquals(3, Collections.frequency(attempts, "/percy/dom.js"));
+        // The log may have reached the CLI, so it is not sent again
+        assertEquals(1, Collections.frequency(attempts, "/percy/log"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    public void learnsTimeoutsFromObservedLatency() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker(address, 5, 60000, 0, 1000, 60000);
+        List<Duration> timeouts = new CopyOnWriteArrayList<>();
+        PercyTransport.register(address, request -> {
+            timeouts.add(request.getTimeout());
+            return new PercyTransport.Response(200, Collections.emptyMap(), null);
+        });
+
+        for (int i = 0; i < 25; i++) {
+            breaker.send(PercyTransport.Request.get("/percy/dom.js"));
+            breaker.send(snapshot());
+        }
+        breaker.send(PercyTransport.Request.get("/percy/dom.js").timeout(Duration.ofMinutes(10)));
+
+        assertEquals(PercyHttpClient.timeout("/percy/dom.js"), timeouts.get(0));
+        assertEquals(Duration.ofMillis(1000), timeouts.get(48));
+        // Uploads keep the default, however fast earlier ones were
+        assertEquals(PercyHttpClient.timeout("/percy/snapshot"), timeouts.get(49));
+        // So does an explicit timeout
+        assertEquals(Duration.ofMinutes(10), timeouts.get(50));
+    }
+
+    @Test
+    public void countsOneFailurePerRequest() {
+        CircuitBreaker breaker = new CircuitBreaker(address, 3, 60000, 2, 30000, 60000);
+        PercyTransport.register(address, request -> { throw new ConnectException("refused"); });
+
+        // Each is tried three times
+        assertThrows(ConnectException.class, () -> breaker.send(PercyTransport.Request.get("/percy/dom.js")));
+        assertThrows(ConnectException.class, () -> breaker.send(PercyTransport.Request.get("/percy/dom.js")));
+        assertTrue(breaker.isClosed());
+
+        assertThrows(ConnectException.class, () -> breaker.send(PercyTransport.Request.get("/percy/dom.js")));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    public void defaultsLearnTimeoutsShorterThanTheEndpointDefaults() throws IOException {
+        CircuitBreaker breaker = CircuitBreaker.forAddress(address);
+        PercyTransport.register(address, request -> new PercyTransport.Response(200, Collections.emptyMap(), null));
+
+        for (int i = 0; i < 25; i++) {
+            breaker.send(PercyTransport.Request.get("/percy/dom.js"));
+            breaker.send(PercyTransport.Request.get(CircuitBreaker.PROBE_PATH));
+        }
+
+        Duration domDefault = PercyHttpClient.timeout("/percy/dom.js");
+        Duration healthcheckDefault = PercyHttpClient.timeout(CircuitBreaker.PROBE_PATH);
+        assertTrue(breaker.timeout("/percy/dom.js", domDefault).compareTo(domDefault) < 0);
+        assertTrue(breaker.timeout(CircuitBreaker.PROBE_PATH, healthcheckDefault).compareTo(healthcheckDefault) < 0);
+    }
+
+    @Test
+    public void opensWhenTheCliStopsAnsweringDuringAnUpload() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(address, 5, 60000, 0, 30000, 50);
+        CountDownLatch release = new CountDownLatch(1);
+        PercyTransport.register(address, request -> {
+            if (request.getPath().equals(CircuitBreaker.PROBE_PATH)) { throw new SocketTimeoutException("read timed out"); }
+            try {
+                // A hung CLI never answers the upload
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new PercyTransport.Response(200, Collections.emptyMap(), null);
+        });
+
+        Thread upload = new Thread(() -> {
+            try {
+                breaker.send(snapshot());
+            } catch (IOException ignored) {
+            }
+        });
+        upload.start();
+        try {
+            long deadline = System.currentTimeMillis() + 3000;
+            while (breaker.isClosed() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // Opened while the upload was still waiting
+            assertTrue(upload.isAlive());
+            assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        } finally {
+            release.countDown();
+            upload.join();
+        }
+    }
+
+    @Test
+    public void probeResumesSnapshotsWhenTheCliIsBack() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(address, 2, 50, 0, 30000, 60000);
+        CircuitBreaker.register(address, breaker);
+        RemoteWebDriver driver = CliSimulator.mockDriver();
+        Percy percy = new Percy(driver, address);
+        assertNotNull(percy.snapshot("Before"));
+
+        cli.down(true);
+        assertNull(percy.snapshot("Lost 1"));
+        assertNull(percy.snapshot("Lost 2"));
+        assertFalse(breaker.isClosed());
+
+        // While the breaker is open, nothing is captured
+        clearInvocations(driver);
+        assertNull(percy.snapshot("Skipped"));
+        verifyNoInteractions(driver);
+
+        cli.down(false);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!breaker.isClosed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(breaker.isClosed());
+        assertEquals(1, breaker.recoveries());
+        assertNotNull(percy.snapshot("After"));
+        assertEquals("After", cli.snapshots().get(cli.snapshots().size() - 1).getString("name"));
+    }
+
+    private static PercyTransport.Request log() {
+        return PercyTransport.Request.post("/percy/log", new StringEntity("{}", ContentType.APPLICATION_JSON));
+    }
+
+    private static PercyTransport.Request snapshot() {
+        return PercyTransport.Request.post("/percy/snapshot", new StringEntity("{}", ContentType.APPLICATION_JSON));
+    }
+}
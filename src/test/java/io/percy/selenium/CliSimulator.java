@@ -0,0 +1,400 @@
+package io.percy.selenium;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * In-process stand-in for the Percy CLI, on an ephemeral port.
+ *
+ * Implements the endpoints the SDK calls, with configurable latency, error rate and response
+ * size. Settings can be changed while the simulator is running. The error rate applies to every
+ * endpoint except the healthcheck, so SDK instances still start.
+ *
+ * With {@link #resourceDedup(boolean)} on, it implements the resource deduplication protocol of
+ * {@link ResourceIndex}: resources sent by {@code sha256} alone are filled in from earlier
+ * uploads, and unknown hashes are answered with 409 and {@code missingResources}.
+ *
+ * {@code /percy/snapshot/batch} accepts {@code {"snapshots":[...]}} and answers with one result
+ * per snapshot; the error rate applies to each snapshot on its own. With
+ * {@link #batchEndpoint(boolean)} off it answers 404, like a CLI without the endpoint.
+ *
+ * With {@link #down(boolean)} on, every endpoint closes the connection without answering, like
+ * a CLI that stopped responding.
+ */
+class CliSimulator {
+    static final String DOM_JS =
+        "window.PercyDOM = {\n" +
+        "  serialize: function (options) { return { html: document.documentElement.outerHTML, resources: [] }; },\n" +
+        "  waitForResize: function () { window.resizeCount = 0; window.addEventListener('resize', function () { window.resizeCount++; }); }\n" +
+        "};";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "cli-simulator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long latencyMs = 0;
+    private volatile long jitterMs = 0;
+    private volatile double errorRate = 0;
+    private volatile int responseBytes = 0;
+    private volatile String sessionType = "web";
+    private volatile boolean acceptGzip = false;
+    private volatile boolean recordSnapshots = false;
+    private volatile boolean resourceDedup = false;
+    private volatile boolean batchEndpoint = true;
+    private volatile boolean down = false;
+    private final Set<String> failingSnapshots = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHashMap<String, AtomicLong> requests = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final Set<String> connections = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<JSONObject> snapshots = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<String, String> resources = new ConcurrentHashMap<>();
+    private final AtomicLong resourcesByHash = new AtomicLong();
+
+    private CliSimulator(HttpServer server) {
+        this.server = server;
+    }
+
+    static CliSimulator start() throws IOException {
+        // Without TCP_NODELAY, delayed ACKs add ~40ms to every small response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        CliSimulator simulator = new CliSimulator(server);
+        simulator.context("/percy/healthcheck", simulator::healthcheck);
+        simulator.context("/percy/dom.js", exchange -> simulator.handle(exchange, DOM_JS));
+        simulator.context("/percy/snapshot", exchange -> simulator.handle(exchange, simulator.successBody()));
+        simulator.context("/percy/snapshot/batch", simulator::batch);
+        simulator.context("/percy/automateScreenshot", exchange -> simulator.handle(exchange, simulator.successBody()));
+        simulator.context("/percy/log", exchange -> simulator.handle(exchange, "{\"success\":true}"));
+        server.setExecutor(simulator.executor);
+        server.start();
+        return simulator;
+    }
+
+    /**
+     * @return A mocked driver on {@code http://localhost:8000/} whose page serializes to an
+     *         empty {@code <html>}, to snapshot against the simulator.
+     */
+    static RemoteWebDriver mockDriver() {
+        Map<String, Object> dom = new HashMap<>();
+        dom.put("html", "<html></html>");
+        return mockDriver(dom);
+    }
+
+    /**
+     * @param dom What every script run on the page returns, such as the serialized DOM.
+     * @return A mocked driver on {@code http://localhost:8000/}.
+     */
+    static RemoteWebDriver mockDriver(Map<String, Object> dom) {
+        RemoteWebDriver driver = mock(RemoteWebDriver.class);
+        when(driver.executeScript(anyString())).thenReturn(dom);
+        when(driver.getCurrentUrl()).thenReturn("http://localhost:8000/");
+        when(driver.manage()).thenReturn(mock(WebDriver.Options.class));
+        return driver;
+    }
+
+    private void context(String path, HttpHandler handler) {
+        server.createContext(path, exchange -> {
+            if (down) {
+                record(exchange);
+                exchange.close();
+                return;
+            }
+            handler.handle(exchange);
+        });
+    }
+
+    String address() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // Settings
+
+    CliSimulator latency(long millis, long jitterMillis) {
+        this.latencyMs = millis;
+        this.jitterMs = jitterMillis;
+        return this;
+    }
+
+    CliSimulator errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    CliSimulator responseBytes(int responseBytes) {
+        this.responseBytes = responseBytes;
+        return this;
+    }
+
+    CliSimulator sessionType(String sessionType) {
+        this.sessionType = sessionType;
+        return this;
+    }
+
+    CliSimulator acceptGzip(boolean acceptGzip) {
+        this.acceptGzip = acceptGzip;
+        return this;
+    }
+
+    CliSimulator recordSnapshots(boolean recordSnapshots) {
+        this.recordSnapshots = recordSnapshots;
+        return this;
+    }
+
+    CliSimulator resourceDedup(boolean resourceDedup) {
+        this.resourceDedup = resourceDedup;
+        return this;
+    }
+
+    CliSimulator batchEndpoint(boolean batchEndpoint) {
+        this.batchEndpoint = batchEndpoint;
+        return this;
+    }
+
+    CliSimulator down(boolean down) {
+        this.down = down;
+        return this;
+    }
+
+    // Fail snapshots with these names in batches
+    CliSimulator failSnapshots(String... names) {
+        failingSnapshots.clear();
+        failingSnapshots.addAll(Arrays.asList(names));
+        return this;
+    }
+
+    // Drop every stored resource, as a restarted CLI would
+    void forgetResources() {
+        resources.clear();
+    }
+
+    // Observations
+
+    long requestCount(String path) {
+        AtomicLong count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    long errorCount(String path) {
+        AtomicLong count = errors.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    long bytesReceived() {
+        return bytesReceived.get();
+    }
+
+    // Distinct client connections seen, by remote port
+    int connectionCount() {
+        return connections.size();
+    }
+
+    // Snapshot payloads received while recordSnapshots is on
+    List<JSONObject> snapshots() {
+        return new ArrayList<>(snapshots);
+    }
+
+    // Resources received by hash and filled in from earlier uploads
+    long resourcesByHash() {
+        return resourcesByHash.get();
+    }
+
+    void reset() {
+        resourcesByHash.set(0);
+        requests.clear();
+        errors.clear();
+        bytesReceived.set(0);
+        connections.clear();
+        snapshots.clear();
+    }
+
+    private void healthcheck(HttpExchange exchange) throws IOException {
+        record(exchange);
+        readBody(exchange, false);
+        delay();
+
+        JSONObject body = new JSONObject();
+        body.put("success", true);
+        body.put("type", sessionType);
+        body.put("widths", new JSONObject("{\"mobile\":[375],\"config\":[1280]}"));
+        body.put("config", new JSONObject("{\"snapshot\":{\"widths\":[1280]}}"));
+
+        exchange.getResponseHeaders().add("x-percy-core-version", "1.30.0");
+        if (acceptGzip) { exchange.getResponseHeaders().add("Accept-Encoding", "gzip"); }
+        if (resourceDedup) { exchange.getResponseHeaders().add("X-Percy-Resource-Dedup", ResourceIndex.ALGORITHM); }
+        respond(exchange, 200, body.toString());
+    }
+
+    private void handle(HttpExchange exchange, String body) throws IOException {
+        String path = record(exchange);
+        boolean snapshot = "/percy/snapshot".equals(path);
+        byte[] request = readBody(exchange, snapshot && (recordSnapshots || resourceDedup));
+        delay();
+
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.computeIfAbsent(path, p -> new AtomicLong()).incrementAndGet();
+            respond(exchange, 500, "{\"success\":false,\"error\":\"Simulated failure\"}");
+            return;
+        }
+
+        if (snapshot && (recordSnapshots || resourceDedup)) {
+            JSONObject result = accept(new JSONObject(new String(request, StandardCharsets.UTF_8)));
+            if (result.has("missingResources")) {
+                respond(exchange, 409, result.toString());
+                return;
+            }
+        }
+        respond(exchange, 200, body);
+    }
+
+    private String successBody() {
+        JSONObject data = new JSONObject();
+        if (responseBytes > 0) {
+            StringBuilder padding = new StringBuilder(responseBytes);
+            while (padding.length() < responseBytes) { padding.append('x'); }
+            data.put("padding", padding.toString());
+        }
+        return new JSONObject().put("success", true).put("data", data).toString();
+    }
+
+    private String record(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        requests.computeIfAbsent(path, p -> new AtomicLong()).incrementAndGet();
+        connections.add(exchange.getRemoteAddress().toString());
+        return path;
+    }
+
+    private void batch(HttpExchange exchange) throws IOException {
+        String path = record(exchange);
+        if (!batchEndpoint) {
+            readBody(exchange, false);
+            respond(exchange, 404, "Not Found");
+            return;
+        }
+
+        JSONArray payloads = new JSONObject(new String(readBody(exchange, true), StandardCharsets.UTF_8)).getJSONArray("snapshots");
+        delay();
+
+        JSONArray results = new JSONArray();
+        for (int i = 0; i < payloads.length(); i++) {
+            JSONObject payload = payloads.getJSONObject(i);
+            if (failingSnapshots.contains(payload.optString("name"))
+                    || (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)) {
+                errors.computeIfAbsent(path, p -> new AtomicLong()).incrementAndGet();
+                results.put(new JSONObject().put("success", false).put("error", "Simulated failure"));
+            } else {
+                results.put(accept(payload));
+            }
+        }
+        respond(exchange, 200, new JSONObject().put("success", true).put("results", results).toString());
+    }
+
+    // Take one snapshot payload, and return its result
+    private JSONObject accept(JSONObject payload) {
+        if (resourceDedup) {
+            JSONArray missing = resolveResources(payload);
+            if (missing.length() > 0) {
+                return new JSONObject().put("success", false).put("error", "Missing resources").put("missingResources", missing);
+            }
+        }
+        if (recordSnapshots) { snapshots.add(payload); }
+        return new JSONObject(successBody());
+    }
+
+    // Store resources sent in full, fill in those sent by hash, and return the unknown hashes
+    private JSONArray resolveResources(JSONObject payload) {
+        JSONArray missing = new JSONArray();
+        Object domSnapshot = payload.opt("domSnapshot");
+        JSONArray doms = domSnapshot instanceof JSONArray ? (JSONArray) domSnapshot : new JSONArray().put(domSnapshot);
+        for (int i = 0; i < doms.length(); i++) {
+            JSONArray domResources = doms.optJSONObject(i) == null ? null : doms.getJSONObject(i).optJSONArray("resources");
+            for (int j = 0; domResources != null && j < domResources.length(); j++) {
+                JSONObject resource = domResources.getJSONObject(j);
+                if (resource.has("content")) {
+                    resources.put(ResourceIndex.sha256(resource.getString("content")), resource.getString("content"));
+                } else if (resource.has(ResourceIndex.ALGORITHM)) {
+                    String content = resources.get(resource.getString(ResourceIndex.ALGORITHM));
+                    if (content == null) {
+                        missing.put(resource.getString(ResourceIndex.ALGORITHM));
+                    } else {
+                        resource.put("content", content);
+                        resourcesByHash.incrementAndGet();
+                    }
+                }
+            }
+        }
+        return missing;
+    }
+
+    private byte[] readBody(HttpExchange exchange, boolean keep) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        try (InputStream body = "gzip".equalsIgnoreCase(encoding) ? new GZIPInputStream(in) : in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                // Only keep the body when it will be parsed
+                if (keep) { out.write(buffer, 0, read); }
+                bytesReceived.addAndGet(read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private void delay() {
+        long millis = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+        if (millis <= 0) { return; }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package io.percy.selenium;
+
+import java.net.URL;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.Response;
+
+import static org.mockito.Mockito.*;
+
+public class CommandExecutorUnwrapperTest {
+    // Stand-in for wrappers like TracedCommandExecutor
+    private static class WrappingExecutor implements CommandExecutor {
+        private final CommandExecutor delegate;
+
+        WrappingExecutor(CommandExecutor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Response execute(Command command) {
+            return null;
+        }
+    }
+
+    private static class OpaqueExecutor implements CommandExecutor {
+        @Override
+        public Response execute(Command command) {
+            return null;
+        }
+    }
+
+    @Test
+    public void followsNestedWrappers() throws Exception {
+        HttpCommandExecutor http = mock(HttpCommandExecutor.class);
+        URL address = new URL("https://hub-cloud.browserstack.com/wd/hub");
+        when(http.getAddressOfRemoteServer()).thenReturn(address);
+
+        assertEquals(address, CommandExecutorUnwrapper.addressOf(http));
+        assertEquals(address, CommandExecutorUnwrapper.addressOf(new WrappingExecutor(new WrappingExecutor(http))));
+    }
+
+    @Test
+    public void returnsNullWithoutAnHttpExecutor() {
+        assertNull(CommandExecutorUnwrapper.addressOf(new OpaqueExecutor()));
+        assertNull(CommandExecutorUnwrapper.addressOf(new WrappingExecutor(new OpaqueExecutor())));
+        assertNull(CommandExecutorUnwrapper.addressOf(new WrappingExecutor(null)));
+    }
+}
@@ -0,0 +1,155 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chromium.HasCdp;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class CookieProviderTest {
+    private static CliSimulator cli;
+
+    private RemoteWebDriver driver;
+    private WebDriver.Options options;
+
+    @BeforeAll
+    public static void startCli() throws IOException {
+        cli = CliSimulator.start().recordSnapshots(true);
+    }
+
+    @AfterAll
+    public static void stopCli() {
+        cli.stop();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        cli.reset();
+        driver = mock(RemoteWebDriver.class);
+        options = mock(WebDriver.Options.class);
+        when(options.getCookies()).thenReturn(Collections.singleton(new Cookie("session", "abc")));
+        when(driver.manage()).thenReturn(options);
+    }
+
+    @Test
+    public void cachesCookiesForAnUnchangedPage() {
+        CookieProvider provider = new CookieProvider(driver, true);
+
+        Set<Cookie> first = provider.cookies(fingerprint("1000", "a=1"));
+        Set<Cookie> second = provider.cookies(fingerprint("1000", "a=1"));
+
+        assertEquals(first, second);
+        verify(options, times(1)).getCookies();
+    }
+
+    @Test
+    public void readsCookiesAgainAfterNavigationOrCookieChange() {
+        CookieProvider provider = new CookieProvider(driver, true);
+
+        provider.cookies(fingerprint("1000", "a=1"));
+        provider.cookies(fingerprint("1000", "a=2"));
+        provider.cookies(fingerprint("2000", "a=2"));
+
+        verify(options, times(3)).getCookies();
+    }
+
+    @Test
+    public void readsCookiesEveryTimeWithoutAFingerprintOrCache() {
+        new CookieProvider(driver, true).cookies(null);
+        CookieProvider uncached = new CookieProvider(driver, false);
+        uncached.cookies(fingerprint("1000", "a=1"));
+        uncached.cookies(fingerprint("1000", "a=1"));
+
+        verify(options, times(3)).getCookies();
+    }
+
+    @Test
+    public void readsCookiesOverCdpOnChromium() {
+        RemoteWebDriver chrome = chromeWithCookie();
+
+        Set<Cookie> cookies = new CookieProvider(chrome, true).cookies(fingerprint("1000", ""));
+
+        Cookie read = cookies.iterator().next();
+        assertEquals("session", read.getName());
+        assertEquals(".example.com", read.getDomain());
+        assertTrue(read.isHttpOnly());
+        assertEquals("Lax", read.getSameSite());
+        assertEquals(1900000000000L, read.getExpiry().getTime());
+        verify((HasCdp) chrome).executeCdpCommand("Network.getCookies",
+            Collections.singletonMap("urls", Collections.singletonList("http://localhost:8000/")));
+        verify(chrome, never()).manage();
+    }
+
+    @Test
+    public void readsCookiesOverCdpWithoutTheCache() {
+        RemoteWebDriver chrome = chromeWithCookie();
+        CookieProvider provider = new CookieProvider(chrome, false);
+
+        provider.cookies(fingerprint("1000", ""));
+        Set<Cookie> cookies = provider.cookies(fingerprint("1000", ""));
+
+        assertTrue(cookies.iterator().next().isHttpOnly());
+        verify((HasCdp) chrome, times(2)).executeCdpCommand("Network.getCookies",
+            Collections.singletonMap("urls", Collections.singletonList("http://localhost:8000/")));
+        verify(chrome, never()).manage();
+    }
+
+    @Test
+    public void snapshotsReadCookiesEveryTimeByDefault() {
+        Map<String, Object> dom = new HashMap<>();
+        dom.put("html", "<html></html>");
+        dom.put(CookieProvider.FINGERPRINT_KEY, fingerprint("1000", "a=1"));
+        RemoteWebDriver page = CliSimulator.mockDriver(dom);
+        when(page.manage()).thenReturn(options);
+        Percy percy = new Percy(page, cli.address());
+
+        percy.snapshot("First", new HashMap<>());
+        percy.snapshot("Second", new HashMap<>());
+
+        // HttpOnly cookies may have changed without a navigation, so they are only cached when asked to
+        verify(options, times(2)).getCookies();
+        JSONObject uploaded = cli.snapshots().get(1).getJSONObject("domSnapshot");
+        assertEquals("session", uploaded.getJSONArray("cookies").getJSONObject(0).getString("name"));
+        // The fingerprint is not uploaded
+        assertFalse(uploaded.has(CookieProvider.FINGERPRINT_KEY));
+    }
+
+    private static RemoteWebDriver chromeWithCookie() {
+        RemoteWebDriver chrome = mock(RemoteWebDriver.class, withSettings().extraInterfaces(HasCdp.class));
+        Map<String, Object> cookie = new HashMap<>();
+        cookie.put("name", "session");
+        cookie.put("value", "abc");
+        cookie.put("domain", ".example.com");
+        cookie.put("path", "/");
+        cookie.put("expires", 1.9e9);
+        cookie.put("session", false);
+        cookie.put("secure", true);
+        cookie.put("httpOnly", true);
+        cookie.put("sameSite", "Lax");
+        when(((HasCdp) chrome).executeCdpCommand(eq("Network.getCookies"), any()))
+            .thenReturn(Collections.singletonMap("cookies", Collections.singletonList(cookie)));
+        return chrome;
+    }
+
+    private static Map<String, Object> fingerprint(String loadedAt, String cookie) {
+        Map<String, Object> fingerprint = new HashMap<>();
+        fingerprint.put("origin", "http://localhost:8000");
+        fingerprint.put("url", "http://localhost:8000/");
+        fingerprint.put("loadedAt", loadedAt);
+        fingerprint.put("cookie", cookie);
+        return fingerprint;
+    }
+}
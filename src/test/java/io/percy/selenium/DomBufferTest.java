@@ -0,0 +1,89 @@
+package io.percy.selenium;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DomBufferTest {
+
+    @Test
+    public void keepsSmallDomInMemory() throws IOException {
+        DomBuffer buffer = new DomBuffer(1024);
+        buffer.append("{\"html\":\"<p>hi</p>\",");
+        buffer.append("\"cookies\":[]}");
+
+        assertFalse(buffer.isSpilled());
+        assertEquals("{\"html\":\"<p>hi</p>\",\"cookies\":[]}", read(buffer));
+        buffer.close();
+    }
+
+    @Test
+    public void spillsLargeDomToDisk() throws IOException {
+        DomBuffer buffer = new DomBuffer(16);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            String chunk = "chunk-" + i + "-é€;";
+            buffer.append(chunk);
+            expected.append(chunk);
+        }
+
+        assertTrue(buffer.isSpilled());
+        assertEquals(expected.toString(), read(buffer));
+        assertEquals(expected.toString().getBytes(StandardCharsets.UTF_8).length, buffer.length());
+        // Repeatable, so a retried request sends the same body
+        assertEquals(expected.toString(), read(buffer));
+        buffer.close();
+    }
+
+    @Test
+    public void streamsSnapshotPayload() throws IOException {
+        DomBuffer dom = new DomBuffer(8);
+        dom.append("{\"html\":\"<p>é</p>\",\"cookies\":[]}");
+        JSONObject payload = new JSONObject();
+        payload.put("name", "Test");
+
+        SnapshotPayloadEntity entity = new SnapshotPayloadEntity(payload, Collections.singletonList(dom), false);
+        String body = write(entity);
+        JSONObject json = new JSONObject(body);
+
+        assertEquals(body.getBytes(StandardCharsets.UTF_8).length, entity.getContentLength());
+        assertEquals("Test", json.getString("name"));
+        assertEquals("<p>é</p>", json.getJSONObject("domSnapshot").getString("html"));
+        dom.close();
+    }
+
+    @Test
+    public void streamsResponsiveSnapshotPayload() throws IOException {
+        DomBuffer first = new DomBuffer();
+        first.append("{\"width\":375}");
+        DomBuffer second = new DomBuffer();
+        second.append("{\"width\":1280}");
+
+        SnapshotPayloadEntity entity = new SnapshotPayloadEntity(new JSONObject().put("name", "Test"), Arrays.asList(first, second), true);
+        String body = write(entity);
+        JSONArray doms = new JSONObject(body).getJSONArray("domSnapshot");
+
+        assertEquals(body.getBytes(StandardCharsets.UTF_8).length, entity.getContentLength());
+        assertEquals(375, doms.getJSONObject(0).getInt("width"));
+        assertEquals(1280, doms.getJSONObject(1).getInt("width"));
+    }
+
+    private static String read(DomBuffer buffer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        buffer.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String write(SnapshotPayloadEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,85 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class DomJsCacheTest {
+    private static final String SCRIPT = "window.PercyDOM = {};";
+    private static HttpServer server;
+    private static String address;
+    private static final AtomicInteger downloads = new AtomicInteger();
+    private static final AtomicInteger notModified = new AtomicInteger();
+
+    @BeforeAll
+    public static void testSetup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/percy/dom.js", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            downloads.incrementAndGet();
+            byte[] body = SCRIPT.getBytes();
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        address = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterAll
+    public static void testTeardown() {
+        server.stop(0);
+    }
+
+    @BeforeEach
+    public void reset() {
+        downloads.set(0);
+        notModified.set(0);
+    }
+
+    @Test
+    public void downloadsOncePerVersion() throws IOException {
+        DomJsCache cache = new DomJsCache(address, null);
+        assertEquals(SCRIPT, cache.get("1.30.9"));
+        assertEquals(SCRIPT, cache.get("1.30.9"));
+        assertEquals(1, downloads.get());
+    }
+
+    @Test
+    public void revalidatesWhenVersionChanges() throws IOException {
+        DomJsCache cache = new DomJsCache(address, null);
+        assertEquals(SCRIPT, cache.get("1.30.9"));
+        assertEquals(SCRIPT, cache.get("1.31.0"));
+        assertEquals(1, downloads.get());
+        assertEquals(1, notModified.get());
+    }
+
+    @Test
+    public void readsPersistedScriptFromDisk() throws IOException {
+        Path dir = Files.createTempDirectory("percy-dom-cache");
+        assertEquals(SCRIPT, new DomJsCache(address, dir).get("1.30.9"));
+        assertTrue(Files.exists(dir.resolve("percy-dom-1.30.9.js")));
+
+        // A second JVM would start with an empty in-memory cache
+        assertEquals(SCRIPT, new DomJsCache(address, dir).get("1.30.9"));
+        assertEquals(1, downloads.get());
+    }
+}
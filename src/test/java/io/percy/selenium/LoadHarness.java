@@ -0,0 +1,146 @@
+package io.percy.selenium;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.pool.PoolStats;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Drives concurrent {@link Percy} instances, each with its own mocked driver, against a
+ * {@link CliSimulator}, and reports latency, throughput, heap growth, threads and connections.
+ */
+class LoadHarness {
+    private LoadHarness() {
+    }
+
+    /**
+     * @param instances            Number of Percy instances, each on its own thread.
+     * @param snapshotsPerInstance Snapshots taken by each instance, one after another.
+     * @param domBytes             Size of the HTML in each serialized DOM.
+     */
+    static Report run(CliSimulator cli, int instances, int snapshotsPerInstance, int domBytes) throws Exception {
+        Map<String, Object> dom = syntheticDom(domBytes);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long heapBefore = usedHeap();
+        threads.resetPeakThreadCount();
+
+        ExecutorService pool = Executors.newFixedThreadPool(instances);
+        List<Future<long[]>> results = new ArrayList<>();
+        AtomicLong failures = new AtomicLong();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < instances; i++) {
+            int instance = i;
+            results.add(pool.submit(() -> {
+                Percy percy = new Percy(mockDriver(dom), cli.address());
+                Map<String, Object> options = new HashMap<>();
+                options.put("widths", Arrays.asList(375, 1280));
+
+                long[] latencies = new long[snapshotsPerInstance];
+                for (int n = 0; n < snapshotsPerInstance; n++) {
+                    long begin = System.nanoTime();
+                    if (percy.snapshot("Load " + instance + "-" + n, options) == null) {
+                        failures.incrementAndGet();
+                    }
+                    latencies[n] = System.nanoTime() - begin;
+                }
+                return latencies;
+            }));
+        }
+
+        long[] all = new long[instances * snapshotsPerInstance];
+        int offset = 0;
+        for (Future<long[]> result : results) {
+            long[] latencies = result.get();
+            System.arraycopy(latencies, 0, all, offset, latencies.length);
+            offset += latencies.length;
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+
+        Arrays.sort(all);
+        Report report = new Report();
+        report.snapshots = all.length;
+        report.failures = failures.get();
+        report.p50Millis = percentile(all, 0.50) / 1e6;
+        report.p99Millis = percentile(all, 0.99) / 1e6;
+        report.throughput = all.length / (elapsed / 1e9);
+        report.heapGrowthBytes = usedHeap() - heapBefore;
+        report.peakThreads = threads.getPeakThreadCount();
+        report.connections = cli.connectionCount();
+        report.pool = PercyHttpClient.getStats();
+        return report;
+    }
+
+    static final class Report {
+        int snapshots;
+        long failures;
+        double p50Millis;
+        double p99Millis;
+        double throughput;
+        long heapGrowthBytes;
+        int peakThreads;
+        int connections;
+        PoolStats pool;
+
+        @Override
+        public String toString() {
+            return String.format("%d snapshots, %d failed, p50 %.1fms, p99 %.1fms, %.0f/s, heap %+d KiB, " +
+                "peak threads %d, connections opened %d, pool %s",
+                snapshots, failures, p50Millis, p99Millis, throughput, heapGrowthBytes / 1024,
+                peakThreads, connections, pool);
+        }
+    }
+
+    private static WebDriver mockDriver(Map<String, Object> dom) {
+        // stubOnly, so long runs don't record every invocation
+        RemoteWebDriver driver = mock(RemoteWebDriver.class, withSettings().stubOnly());
+        WebDriver.Options options = mock(WebDriver.Options.class, withSettings().stubOnly());
+        when(options.getCookies()).thenReturn(Collections.emptySet());
+        when(driver.manage()).thenReturn(options);
+        when(driver.executeScript(anyString())).thenReturn(dom);
+        when(driver.getCurrentUrl()).thenReturn("http://localhost:8000/");
+        return driver;
+    }
+
+    private static Map<String, Object> syntheticDom(int domBytes) {
+        StringBuilder html = new StringBuilder("<html><body>");
+        while (html.length() < domBytes) {
+            html.append("<div class=\"row\">Lorem ipsum dolor sit amet</div>");
+        }
+        html.append("</body></html>");
+
+        Map<String, Object> dom = new HashMap<>();
+        dom.put("html", html.toString());
+        dom.put("resources", new ArrayList<>());
+        return dom;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) { return 0; }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,74 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the SDK against the CLI simulator with no network. Defaults are small enough for every
+ * build; for a soak run raise them, e.g.
+ * {@code mvn test -Dtest=LoadTest -Dpercy.load.instances=64 -Dpercy.load.snapshots=5000}.
+ */
+public class LoadTest {
+    private static final int INSTANCES = Integer.getInteger("percy.load.instances", 8);
+    private static final int SNAPSHOTS = Integer.getInteger("percy.load.snapshots", 25);
+    private static final int DOM_BYTES = Integer.getInteger("percy.load.domBytes", 64 * 1024);
+
+    private static CliSimulator cli;
+
+    @BeforeAll
+    public static void testSetup() throws IOException {
+        cli = CliSimulator.start();
+    }
+
+    @AfterAll
+    public static void testTeardown() {
+        cli.stop();
+    }
+
+    @BeforeEach
+    public void reset() {
+        cli.reset();
+        cli.latency(0, 0).errorRate(0);
+    }
+
+    @Test
+    public void sustainsConcurrentInstances() throws Exception {
+        cli.latency(2, 8);
+        LoadHarness.Report report = LoadHarness.run(cli, INSTANCES, SNAPSHOTS, DOM_BYTES);
+        System.out.println("[load] " + report);
+
+        assertEquals(0, report.failures);
+        assertEquals(INSTANCES * SNAPSHOTS, cli.requestCount("/percy/snapshot"));
+        // Connections are pooled, not opened per snapshot
+        assertTrue(report.connections <= report.pool.getMax(), report.toString());
+        assertEquals(0, report.pool.getLeased());
+    }
+
+    @Test
+    public void survivesCliErrors() throws Exception {
+        cli.errorRate(0.25);
+        LoadHarness.Report report = LoadHarness.run(cli, INSTANCES, SNAPSHOTS, DOM_BYTES);
+        System.out.println("[load] " + report);
+
+        assertEquals(cli.errorCount("/percy/snapshot"), report.failures);
+        assertEquals(0, report.pool.getLeased());
+    }
+
+    @Test
+    public void recordsSnapshotPayloads() throws Exception {
+        cli.recordSnapshots(true);
+        try {
+            LoadHarness.run(cli, 1, 2, 1024);
+        } finally {
+            cli.recordSnapshots(false);
+        }
+
+        assertEquals(2, cli.snapshots().size());
+        assertTrue(cli.snapshots().get(0).getJSONObject("domSnapshot").getString("html").startsWith("<html>"));
+    }
+}
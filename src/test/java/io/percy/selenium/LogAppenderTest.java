@@ -0,0 +1,116 @@
+package io.percy.selenium;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class LogAppenderTest {
+    private static HttpServer server;
+    private static String address;
+    private static final List<JSONObject> received = new CopyOnWriteArrayList<>();
+
+    @BeforeAll
+    public static void testSetup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/percy/log", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                received.add(new JSONObject(readAll(body)));
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        // Answers like @percy/agent, which the SDK no longer supports
+        server.createContext("/percy/healthcheck", exchange -> {
+            byte[] body = "{\"success\":true}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        address = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterAll
+    public static void testTeardown() {
+        server.stop(0);
+    }
+
+    @BeforeEach
+    public void reset() {
+        received.clear();
+    }
+
+    @Test
+    public void sendsBufferedRecordsAsValidJson() {
+        LogAppender appender = new LogAppender(address, false, 100);
+        appender.append("Snapshot \"quoted\" \\ name\nwith newline", "info");
+        appender.append("debug detail", "debug");
+
+        assertTrue(appender.flush(Duration.ofSeconds(5)));
+        assertEquals(2, received.size());
+        assertEquals("Snapshot \"quoted\" \\ name\nwith newline", received.get(0).getString("message"));
+        assertEquals("info", received.get(0).getString("level"));
+        assertEquals("debug", received.get(1).getString("level"));
+    }
+
+    @Test
+    public void dropsRecordsWhenBufferIsFull() {
+        LogAppender appender = new LogAppender("http://localhost:1", false, 2);
+        for (int i = 0; i < 5; i++) {
+            appender.append("message " + i, "info");
+        }
+
+        assertEquals(3, appender.droppedCount());
+    }
+
+    @Test
+    public void appendDoesNotWaitForAStoppedCli() {
+        LogAppender appender = new LogAppender("http://localhost:1", false, 1000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 500; i++) {
+            appender.append("message " + i, "info");
+        }
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1000);
+        assertTrue(appender.flush(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void instancesLogToTheirOwnCli() {
+        // The healthcheck turns Percy off and says why
+        new Percy(CliSimulator.mockDriver(), address).snapshot("Home page");
+
+        assertSame(LogAppender.forAddress(address), LogAppender.forAddress(address));
+        assertTrue(LogAppender.forAddress(address).flush(Duration.ofSeconds(5)));
+        // The background sender may still be posting a record it took before the flush
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (received.stream().noneMatch(record -> record.getString("message").contains("@percy/agent"))) {
+            assertTrue(System.nanoTime() < deadline, "received " + received);
+            Thread.yield();
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,104 @@
+package io.percy.selenium;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.entity.GzipDecompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class PercyHttpClientTest {
+    private static HttpServer server;
+    private static String address;
+
+    @BeforeAll
+    public static void testSetup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = "{\"success\":true}".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        address = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterAll
+    public static void testTeardown() {
+        PercyHttpClient.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void reusesPooledConnections() throws IOException {
+        PercyHttpClient.shutdown();
+        for (int i = 0; i < 5; i++) {
+            try (CloseableHttpResponse response = PercyHttpClient.get().execute(new HttpGet(address + "/percy/healthcheck"))) {
+                assertEquals(200, response.getStatusLine().getStatusCode());
+                EntityUtils.consume(response.getEntity());
+            }
+        }
+
+        PoolStats stats = PercyHttpClient.getStats();
+        assertEquals(0, stats.getLeased());
+        assertEquals(1, stats.getAvailable());
+        assertEquals(0, stats.getPending());
+    }
+
+    @Test
+    public void sharesOneClient() {
+        assertSame(PercyHttpClient.get(), PercyHttpClient.get());
+    }
+
+    @Test
+    public void usesPerEndpointTimeouts() {
+        assertEquals(1000, PercyHttpClient.requestConfig("/percy/log").getSocketTimeout());
+        assertEquals(30000, PercyHttpClient.requestConfig("/percy/dom.js").getSocketTimeout());
+        assertEquals(600000, PercyHttpClient.requestConfig("/percy/snapshot").getSocketTimeout());
+        assertEquals(600000, PercyHttpClient.requestConfig("/percy/automateScreenshot").getSocketTimeout());
+    }
+
+    @Test
+    public void gzipsLargeBodiesWhenEnabled() throws IOException {
+        StringBuilder json = new StringBuilder("{\"html\":\"");
+        for (int i = 0; i < 2000; i++) {
+            json.append("<div class='row'>content</div>");
+        }
+        json.append("\"}");
+        StringEntity entity = new StringEntity(json.toString(), ContentType.APPLICATION_JSON);
+
+        HttpEntity compressed = PercyHttpClient.compress(entity, true, 1024);
+        assertEquals("gzip", compressed.getContentEncoding().getValue());
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        compressed.writeTo(wire);
+        assertTrue(wire.size() < json.length() / 5);
+
+        HttpEntity received = new GzipDecompressingEntity(new ByteArrayEntity(wire.toByteArray()));
+        assertEquals(json.toString(), EntityUtils.toString(received));
+    }
+
+    @Test
+    public void skipsGzipForSmallBodiesOrWhenDisabled() {
+        StringEntity entity = new StringEntity("{\"message\":\"hi\"}", ContentType.APPLICATION_JSON);
+
+        assertSame(entity, PercyHttpClient.compress(entity, true, 1024));
+        assertSame(entity, PercyHttpClient.compress(entity, false, 0));
+    }
+}
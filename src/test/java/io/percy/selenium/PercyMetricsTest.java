@@ -0,0 +1,89 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PercyMetricsTest {
+    private static CliSimulator cli;
+    private final List<SnapshotMetrics> received = new CopyOnWriteArrayList<>();
+    private final PercyMetricsListener listener = received::add;
+    private Percy percy;
+
+    @BeforeAll
+    public static void testSetup() throws IOException {
+        cli = CliSimulator.start();
+    }
+
+    @AfterAll
+    public static void testTeardown() {
+        cli.stop();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        percy = new Percy(CliSimulator.mockDriver(), cli.address());
+        Percy.addMetricsListener(listener);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        Percy.removeMetricsListener(listener);
+    }
+
+    @Test
+    public void reportsPhasesOfASnapshot() {
+        percy.snapshot("Metrics", new HashMap<>());
+
+        assertEquals(1, received.size());
+        SnapshotMetrics metrics = received.get(0);
+        assertEquals("snapshot", metrics.getKind());
+        assertEquals("Metrics", metrics.getName());
+        assertTrue(metrics.getPhases().keySet().containsAll(Arrays.asList("cookies", "serialize", "upload")));
+        assertTrue(metrics.getPayloadBytes() > 0);
+        assertEquals(1, metrics.getWidthCount());
+        // getCookies, the serialize script and getCurrentUrl
+        assertEquals(3, metrics.getCommandCount());
+        assertEquals(200, metrics.getResponseStatus());
+    }
+
+    @Test
+    public void reportsAsyncSnapshotsOnceUploaded() throws Exception {
+        percy.snapshotAsync("Async").get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, received.size());
+        assertTrue(received.get(0).getPhases().containsKey("serialize"));
+        assertTrue(received.get(0).getPhases().containsKey("upload"));
+        assertEquals(200, received.get(0).getResponseStatus());
+    }
+
+    @Test
+    public void summarizesTheRun() {
+        PercyMetricsSummary summary = new PercyMetricsSummary(2);
+        Percy.addMetricsListener(summary);
+        try {
+            for (int i = 0; i < 3; i++) {
+                percy.snapshot("Summary " + i, new HashMap<>());
+            }
+        } finally {
+            Percy.removeMetricsListener(summary);
+        }
+
+        JSONObject json = summary.toJSON();
+        assertEquals(3, json.getLong("snapshots"));
+        assertEquals(0, json.getLong("failures"));
+        assertEquals(3, json.getJSONObject("latency").getJSONObject("total").getLong("count"));
+        assertEquals(2, json.getJSONArray("slowest").length());
+    }
+}
@@ -0,0 +1,84 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.SessionId;
+
+import static org.mockito.Mockito.*;
+
+public class PercyRegistryTest {
+    private static CliSimulator cli;
+
+    @BeforeAll
+    public static void testSetup() throws IOException {
+        cli = CliSimulator.start();
+    }
+
+    @AfterAll
+    public static void testTeardown() {
+        cli.stop();
+    }
+
+    @Test
+    public void bindsOneHandlePerDriver() {
+        PercyRegistry registry = new PercyRegistry(cli.address());
+        RemoteWebDriver driver = mock(RemoteWebDriver.class);
+
+        Percy percy = registry.bind(driver);
+        assertSame(percy, registry.current());
+        assertSame(percy, registry.forDriver(driver));
+        assertNotSame(percy, registry.forDriver(mock(RemoteWebDriver.class)));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void releaseDropsTheHandle() {
+        PercyRegistry registry = new PercyRegistry(cli.address());
+        RemoteWebDriver driver = mock(RemoteWebDriver.class);
+        when(driver.getSessionId()).thenReturn(new SessionId("released"));
+
+        registry.bind(driver);
+        registry.release(driver);
+
+        assertEquals(0, registry.size());
+        assertThrows(IllegalStateException.class, registry::current);
+    }
+
+    @Test
+    public void keepsOneHandlePerThread() throws Exception {
+        PercyRegistry registry = new PercyRegistry(cli.address());
+        int threads = 8;
+        CountDownLatch bound = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(() -> {
+                Percy percy = registry.bind(mock(RemoteWebDriver.class));
+                bound.countDown();
+                bound.await();
+                return registry.current() == percy;
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        executor.shutdown();
+
+        assertEquals(threads, registry.size());
+        // Every handle shares one healthcheck
+        assertEquals(1, cli.requestCount("/percy/healthcheck"));
+    }
+}
@@ -0,0 +1,108 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class PercyServerInfoTest {
+    private static HttpServer server;
+    private static final AtomicInteger healthchecks = new AtomicInteger();
+    private static PercyServerInfo serverInfo;
+
+    @BeforeAll
+    public static void testSetup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/percy/healthcheck", exchange -> {
+            healthchecks.incrementAndGet();
+            byte[] body = ("{\"success\":true,\"type\":\"web\",\"widths\":{\"mobile\":[375],\"config\":[1280]}," +
+                "\"config\":{\"snapshot\":{\"widths\":[1280]}}}").getBytes();
+            exchange.getResponseHeaders().add("x-percy-core-version", "1.30.9");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        serverInfo = PercyServerInfo.forAddress("http://localhost:" + server.getAddress().getPort());
+    }
+
+    @AfterAll
+    public static void testTeardown() {
+        server.stop(0);
+    }
+
+    @BeforeEach
+    public void reset() {
+        serverInfo.invalidate();
+        healthchecks.set(0);
+    }
+
+    @Test
+    public void parsesHealthcheckResponse() {
+        assertTrue(serverInfo.isEnabled());
+        assertEquals("web", serverInfo.getSessionType());
+        assertEquals("1.30.9", serverInfo.getCoreVersion());
+        assertEquals(375, serverInfo.getEligibleWidths().getJSONArray("mobile").getInt(0));
+        assertTrue(serverInfo.getCliConfig().has("snapshot"));
+    }
+
+    @Test
+    public void sharesOneInstancePerAddress() {
+        assertSame(serverInfo, PercyServerInfo.forAddress(serverInfo.getAddress()));
+    }
+
+    @Test
+    public void runsHealthcheckOnceAcrossThreads() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            Thread thread = new Thread(() -> serverInfo.isEnabled());
+            threads.add(thread);
+            thread.start();
+        }
+        serverInfo.prefetch();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(serverInfo.isEnabled());
+        assertEquals(1, healthchecks.get());
+    }
+
+    @Test
+    public void retriesFailedHealthchecks() throws Exception {
+        CliSimulator cli = CliSimulator.start().down(true);
+        CircuitBreaker.register(cli.address(), new CircuitBreaker(cli.address(), 0, 60000, 0, 30000, 60000));
+        try {
+            PercyServerInfo lateStart = PercyServerInfo.forAddress(cli.address());
+            assertFalse(lateStart.isEnabled());
+
+            cli.down(false);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!lateStart.isEnabled() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(lateStart.isEnabled());
+        } finally {
+            CircuitBreaker.register(cli.address(), null);
+            cli.stop();
+        }
+    }
+
+    @Test
+    public void disablesWhenServerIsNotRunning() {
+        PercyServerInfo missing = PercyServerInfo.forAddress("http://localhost:1");
+        assertFalse(missing.isEnabled());
+        assertNull(missing.getSessionType());
+    }
+}
@@ -0,0 +1,183 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PercyTransportTest {
+    private static CliSimulator cli;
+
+    @BeforeAll
+    public static void startCli() throws IOException {
+        cli = CliSimulator.start().recordSnapshots(true);
+    }
+
+    @AfterAll
+    public static void stopCli() {
+        cli.stop();
+    }
+
+    @BeforeEach
+    public void resetCli() {
+        cli.reset();
+    }
+
+    @Test
+    public void apacheTransportTalksToTheCli() throws Exception {
+        exchange(Transports.create(cli.address(), "apache"));
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_11)
+    public void jdkTransportTalksToTheCli() throws Exception {
+        PercyTransport transport = Transports.create(cli.address(), "jdk");
+        assertEquals("JdkHttpTransport", transport.getClass().getSimpleName());
+        exchange(transport);
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_16)
+    public void unixSocketTransportTalksToTheCli() throws Exception {
+        Path socket = Files.createTempDirectory("percy").resolve("percy.sock");
+        Thread bridge = bridge(socket, cli.address());
+        try {
+            PercyTransport transport = Transports.create("unix://" + socket, "apache");
+            assertEquals("UnixSocketTransport", transport.getClass().getSimpleName());
+            exchange(transport);
+            exchange(transport);
+            // Requests after the first reuse the idle connection
+            assertEquals(1, cli.connectionCount());
+            transport.close();
+        } finally {
+            bridge.interrupt();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    @Test
+    public void unknownTransportFallsBackToApache() {
+        assertTrue(Transports.create(cli.address(), "carrier-pigeon") instanceof ApacheTransport);
+    }
+
+    @Test
+    public void registeredTransportIsUsedForTheAddress() {
+        String address = "http://registered-transport.test";
+        PercyTransport.register(address, request -> new PercyTransport.Response(200,
+            Collections.singletonMap("X-Percy-Core-Version", Collections.singletonList("1.31.0")),
+            "{\"success\":true}".getBytes()));
+        try {
+            PercyServerInfo serverInfo = PercyServerInfo.forAddress(address);
+            assertTrue(serverInfo.isEnabled());
+            assertEquals("1.31.0", serverInfo.getCoreVersion());
+        } finally {
+            PercyTransport.register(address, null);
+        }
+        assertTrue(PercyTransport.forAddress(address) instanceof ApacheTransport);
+    }
+
+    // A GET, a small POST, and large POSTs
+    private void exchange(PercyTransport transport) throws Exception {
+        PercyTransport.Response health = transport.send(PercyTransport.Request.get("/percy/healthcheck"));
+        assertEquals(200, health.getStatus());
+        assertEquals("1.30.0", health.header("X-PERCY-CORE-VERSION"));
+        assertEquals("web", new JSONObject(health.bodyAsString()).getString("type"));
+
+        PercyTransport.Response small = transport.send(PercyTransport.Request.post("/percy/snapshot",
+            new StringEntity("{\"name\":\"small\"}", ContentType.APPLICATION_JSON)));
+        assertTrue(new JSONObject(small.bodyAsString()).getBoolean("success"));
+
+        StringBuilder dom = new StringBuilder();
+        while (dom.length() < 3 * 1024 * 1024) { dom.append("<p>Hello Percy</p>"); }
+        String json = new JSONObject().put("name", "large").put("domSnapshot", dom).toString();
+        StringEntity large = new StringEntity(json, ContentType.APPLICATION_JSON);
+        // Sent once as is, and once gzipped, which has no length up front
+        for (HttpEntity body : new HttpEntity[] { large, PercyHttpClient.compress(large, true, 0) }) {
+            assertEquals(200, transport.send(PercyTransport.Request.post("/percy/snapshot", body)).getStatus());
+
+            List<JSONObject> snapshots = cli.snapshots();
+            JSONObject received = snapshots.get(snapshots.size() - 1);
+            assertEquals("large", received.getString("name"));
+            assertEquals(dom.length(), received.getString("domSnapshot").length());
+        }
+    }
+
+    // Relays connections on a Unix domain socket to the simulator's TCP port
+    private static Thread bridge(Path socket, String address) throws Exception {
+        ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+        SocketAddress socketAddress = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+            .getMethod("of", Path.class).invoke(null, socket);
+        ServerSocketChannel server = (ServerSocketChannel) ServerSocketChannel.class
+            .getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        server.bind(socketAddress);
+        int port = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+
+        Thread thread = new Thread(() -> {
+            try (ServerSocketChannel channel = server) {
+                while (!Thread.currentThread().isInterrupted()) {
+                    SocketChannel client = channel.accept();
+                    Socket upstream = new Socket();
+                    upstream.connect(new InetSocketAddress("localhost", port));
+                    InputStream fromUpstream = upstream.getInputStream();
+                    OutputStream toUpstream = upstream.getOutputStream();
+                    // Use the channel directly: its stream adapters lock it for reads and writes alike
+                    pump(buffer -> client.read(ByteBuffer.wrap(buffer)), (buffer, length) -> toUpstream.write(buffer, 0, length));
+                    pump(fromUpstream::read, (buffer, length) -> {
+                        ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, length);
+                        while (bytes.hasRemaining()) { client.write(bytes); }
+                    });
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void pump(Reader in, Writer out) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[65536];
+            int read;
+            try {
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, read);
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private interface Reader {
+        int read(byte[] buffer) throws IOException;
+    }
+
+    private interface Writer {
+        void write(byte[] buffer, int length) throws IOException;
+    }
+}
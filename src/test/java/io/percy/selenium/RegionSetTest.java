@@ -0,0 +1,160 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.RemoteWebElement;
+import org.openqa.selenium.remote.SessionId;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class RegionSetTest {
+    private static CliSimulator cli;
+
+    private RemoteWebDriver driver;
+    private RemoteWebElement header;
+    private RemoteWebElement ad;
+
+    @BeforeAll
+    public static void startCli() throws IOException {
+        cli = CliSimulator.start();
+    }
+
+    @AfterAll
+    public static void stopCli() {
+        cli.stop();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        driver = mock(RemoteWebDriver.class);
+        header = element("header-id");
+        ad = element("ad-id");
+        when(driver.getCurrentUrl()).thenReturn("http://localhost:8000/");
+    }
+
+    @Test
+    public void resolvesEveryRegionWithOneScript() {
+        // The selector matches two elements, the XPath none
+        when(driver.executeScript(anyString(), any(), any())).thenReturn(resolved(
+            Arrays.asList(match(ad, 0, 100, 300, 250.5), match(ad, 0, 400, 300, 250)),
+            Collections.emptyList(),
+            Collections.singletonList(match(header, 0, 0, 1280, 64))));
+        RegionSet regions = RegionSet.builder()
+            .ignoreSelector(".ad")
+            .ignoreXpath("//div[@id='missing']")
+            .considerElement(header)
+            .build();
+
+        ResolvedRegions resolved = new Percy(driver, cli.address()).resolveRegions(regions);
+
+        verify(driver, times(1)).executeScript(anyString(), any(), any());
+        assertEquals(Arrays.asList("ad-id", "ad-id"), resolved.getIgnoreElementIds());
+        assertEquals(Collections.singletonList("header-id"), resolved.getConsiderElementIds());
+        Map<String, Object> box = resolved.getIgnoreBoundingBoxes().get(0);
+        assertEquals(100, box.get("y"));
+        assertEquals(251, box.get("height"));
+        assertEquals(1280, resolved.getConsiderBoundingBoxes().get(0).get("width"));
+        assertEquals("http://localhost:8000/", resolved.getUrl());
+        // The URL comes back with the regions
+        verify(driver, never()).getCurrentUrl();
+    }
+
+    @Test
+    public void passesSelectorsAndElementsAsScriptArguments() {
+        when(driver.executeScript(anyString(), any(), any())).thenReturn(resolved());
+        RegionSet regions = RegionSet.builder().ignoreElement(ad).considerSelector("h1").ignoreElement(header).build();
+
+        new Percy(driver, cli.address()).resolveRegions(regions);
+
+        ArgumentCaptor<Object> specs = ArgumentCaptor.forClass(Object.class);
+        ArgumentCaptor<Object> elements = ArgumentCaptor.forClass(Object.class);
+        verify(driver).executeScript(anyString(), specs.capture(), elements.capture());
+        assertEquals(Arrays.asList(Arrays.asList("ELEMENT", "0"), Arrays.asList("CSS", "h1"), Arrays.asList("ELEMENT", "1")), specs.getValue());
+        assertEquals(Arrays.asList(ad, header), elements.getValue());
+    }
+
+    @Test
+    public void rejectsEmptySelectors() {
+        assertThrows(IllegalArgumentException.class, () -> RegionSet.builder().ignoreSelector(" "));
+        assertThrows(IllegalArgumentException.class, () -> RegionSet.builder().considerElement(null));
+        assertEquals(0, new Percy(driver, cli.address()).resolveRegions(RegionSet.builder().build()).getIgnoreElementIds().size());
+        verifyNoInteractions(driver);
+    }
+
+    @Test
+    public void resolvedRegionsAreReusedAcrossScreenshots() throws MalformedURLException {
+        Percy percy = automatePercy();
+        ResolvedRegions resolved = percy.resolveRegions(RegionSet.builder().ignoreSelector(".ad").build());
+        Map<String, Object> options = new HashMap<>();
+        options.put("ignore_region_selenium_elements", Collections.singletonList(header));
+
+        percy.screenshot("First", options, resolved);
+        percy.screenshot("Second", new HashMap<>(), resolved);
+
+        verify(driver, times(1)).executeScript(anyString(), any(), any());
+        ArgumentCaptor<JSONObject> json = ArgumentCaptor.forClass(JSONObject.class);
+        verify(percy, times(2)).request(eq("/percy/automateScreenshot"), json.capture(), anyString());
+        List<JSONObject> posted = json.getAllValues();
+        assertEquals(Arrays.asList("header-id", "ad-id"), posted.get(0).getJSONObject("options").getJSONArray("ignore_region_elements").toList());
+        assertEquals(Collections.singletonList("ad-id"), posted.get(1).getJSONObject("options").getJSONArray("ignore_region_elements").toList());
+    }
+
+    @Test
+    public void regionsOfAnotherPageAreLeftOut() throws MalformedURLException {
+        Percy percy = automatePercy();
+        ResolvedRegions resolved = percy.resolveRegions(RegionSet.builder().ignoreSelector(".ad").build());
+        when(driver.getCurrentUrl()).thenReturn("http://localhost:8000/checkout");
+
+        percy.screenshot("Checkout", new HashMap<>(), resolved);
+
+        ArgumentCaptor<JSONObject> json = ArgumentCaptor.forClass(JSONObject.class);
+        verify(percy).request(eq("/percy/automateScreenshot"), json.capture(), anyString());
+        assertFalse(json.getValue().getJSONObject("options").has("ignore_region_elements"));
+    }
+
+    // A Percy for an Automate session, on a page with one ad
+    private Percy automatePercy() throws MalformedURLException {
+        when(driver.executeScript(anyString(), any(), any())).thenReturn(resolved(
+            Collections.singletonList(match(ad, 0, 100, 300, 250))));
+        HttpCommandExecutor commandExecutor = mock(HttpCommandExecutor.class);
+        when(commandExecutor.getAddressOfRemoteServer()).thenReturn(new URL("https://hub-cloud.browserstack.com/wd/hub"));
+        when(driver.getSessionId()).thenReturn(new SessionId("123"));
+        when(driver.getCommandExecutor()).thenReturn(commandExecutor);
+        when(driver.getCapabilities()).thenReturn(new DesiredCapabilities());
+        Percy percy = spy(new Percy(driver, cli.address()));
+        percy.sessionType = "automate";
+        return percy;
+    }
+
+    // What the resolve script returns on http://localhost:8000/
+    private static List<Object> resolved(List<?>... matches) {
+        return Arrays.asList("http://localhost:8000/", Arrays.asList(matches));
+    }
+
+    private static RemoteWebElement element(String id) {
+        RemoteWebElement element = mock(RemoteWebElement.class);
+        when(element.getId()).thenReturn(id);
+        return element;
+    }
+
+    private static List<Object> match(RemoteWebElement element, double x, double y, double width, double height) {
+        return Arrays.asList(element, x, y, width, height);
+    }
+}
@@ -0,0 +1,88 @@
+package io.percy.selenium;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chromium.ChromiumDriver;
+import org.openqa.selenium.chromium.HasCdp;
+import org.openqa.selenium.devtools.HasDevTools;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ResizeStrategyTest {
+    @Test
+    public void probesChromiumDriversForCdp() {
+        ChromiumDriver driver = mock(ChromiumDriver.class);
+        assertSame(ResizeStrategy.deviceMetrics(), ResizeStrategy.forDriver(driver));
+
+        ResizeStrategy.forDriver(driver).resize(driver, 375, 800);
+        verify(driver).executeCdpCommand(eq("Emulation.setDeviceMetricsOverride"), argThat((Map<String, Object> params) ->
+            params.get("width").equals(375) && params.get("height").equals(800)));
+
+        ResizeStrategy.forDriver(driver).restore(driver, 1280, 800);
+        verify(driver).executeCdpCommand("Emulation.clearDeviceMetricsOverride", Collections.emptyMap());
+    }
+
+    @Test
+    public void probesPerBrowserAndRemembersFailures() {
+        RemoteWebDriver firefox = mock(RemoteWebDriver.class, withSettings().extraInterfaces(HasDevTools.class));
+        Capabilities capabilities = mock(Capabilities.class);
+        when(capabilities.getBrowserName()).thenReturn("firefox");
+        when(firefox.getCapabilities()).thenReturn(capabilities);
+        assertSame(ResizeStrategy.windowSize(), ResizeStrategy.forDriver(firefox));
+
+        RemoteWebDriver chrome = mock(RemoteWebDriver.class, withSettings().extraInterfaces(HasCdp.class));
+        assertSame(ResizeStrategy.deviceMetrics(), ResizeStrategy.forDriver(chrome));
+        ResizeStrategyProbe.fallBackToWindowSize(chrome);
+        assertSame(ResizeStrategy.windowSize(), ResizeStrategy.forDriver(chrome));
+    }
+
+    @Test
+    public void windowSizeResizesTheWindow() {
+        RemoteWebDriver driver = mock(RemoteWebDriver.class, RETURNS_DEEP_STUBS);
+        WebDriver.Window window = driver.manage().window();
+
+        assertTrue(ResizeStrategy.windowSize().resize(driver, 375, 800));
+        verify(window).setSize(new Dimension(375, 800));
+    }
+
+    @Test
+    public void noneLeavesTheViewportAlone() {
+        RemoteWebDriver driver = mock(RemoteWebDriver.class);
+        assertFalse(ResizeStrategy.none().resize(driver, 375, 800));
+        verifyNoInteractions(driver);
+    }
+
+    @Test
+    public void noneCapturesResponsiveSnapshotsOnce() throws Exception {
+        CliSimulator cli = CliSimulator.start().recordSnapshots(true);
+        try {
+            RemoteWebDriver driver = CliSimulator.mockDriver();
+            Percy percy = new Percy(driver, cli.address());
+            percy.setResizeStrategy(ResizeStrategy.none());
+
+            percy.snapshot("Responsive", SnapshotOptions.builder().widths(375, 1280).responsiveSnapshotCapture(true).build());
+
+            assertEquals("<html></html>", cli.snapshots().get(0).getJSONObject("domSnapshot").getString("html"));
+            verify(driver, never()).executeAsyncScript(anyString(), any());
+        } finally {
+            cli.stop();
+        }
+    }
+
+    @Test
+    public void parsesTheEnvironment() {
+        assertNull(Percy.resizeStrategyFromEnv("auto"));
+        assertSame(ResizeStrategy.deviceMetrics(), Percy.resizeStrategyFromEnv("cdp"));
+        assertSame(ResizeStrategy.windowSize(), Percy.resizeStrategyFromEnv("window"));
+        assertFalse(Percy.resizeStrategyFromEnv("none").resize(mock(RemoteWebDriver.class), 375, 800));
+    }
+}
@@ -0,0 +1,148 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpEntity;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResourceIndexTest {
+    private static CliSimulator cli;
+    private static PercyTransport transport;
+
+    private ResourceIndex index;
+
+    @BeforeAll
+    public static void startCli() throws IOException {
+        cli = CliSimulator.start().resourceDedup(true).recordSnapshots(true);
+        transport = Transports.create(cli.address(), "apache");
+    }
+
+    @AfterAll
+    public static void stopCli() {
+        cli.stop();
+    }
+
+    @BeforeEach
+    public void setup() {
+        cli.reset();
+        cli.forgetResources();
+        cli.errorRate(0);
+        index = new ResourceIndex(100);
+    }
+
+    @Test
+    public void serverAdvertisesDedup() {
+        assertTrue(PercyServerInfo.forAddress(cli.address()).supportsResourceDedup());
+    }
+
+    @Test
+    public void repeatedResourcesInOneSnapshotAreSentOnce() {
+        List<Map<String, Object>> doms = Arrays.asList(dom("app.css", "logo.png"), dom("app.css", "hero.png"));
+
+        ResourceIndex.Prepared prepared = index.prepare(doms);
+
+        List<Map<String, Object>> sent = maps(prepared.domSnapshot);
+        List<Map<String, Object>> second = maps(sent.get(1).get("resources"));
+        assertFalse(second.get(0).containsKey("content"));
+        assertEquals(ResourceIndex.sha256("body of app.css"), second.get(0).get("sha256"));
+        assertEquals("body of hero.png", second.get(1).get("content"));
+        assertEquals(1, prepared.deduplicated);
+        assertEquals(3, prepared.hashes.size());
+        // The caller's snapshot is left as it was
+        assertTrue(maps(doms.get(1).get("resources")).get(0).containsKey("content"));
+    }
+
+    @Test
+    public void resourcesKnownToTheServerAreSentByHash() {
+        post(dom("app.css", "logo.png"));
+        long fullUpload = cli.bytesReceived();
+        assertEquals(2, index.size());
+
+        post(dom("app.css", "logo.png"));
+
+        assertEquals(2, cli.resourcesByHash());
+        assertTrue(cli.bytesReceived() - fullUpload < fullUpload);
+        // The CLI filled the content back in
+        JSONArray resources = last().getJSONObject("domSnapshot").getJSONArray("resources");
+        assertEquals("body of app.css", resources.getJSONObject(0).getString("content"));
+    }
+
+    @Test
+    public void missingResourcesAreSentAgain() {
+        post(dom("app.css"));
+        cli.forgetResources();
+
+        PercyTransport.Response response = post(dom("app.css"));
+
+        assertEquals(200, response.getStatus());
+        assertEquals(3, cli.requestCount("/percy/snapshot"));
+        assertEquals("body of app.css", last().getJSONObject("domSnapshot").getJSONArray("resources").getJSONObject(0).getString("content"));
+    }
+
+    @Test
+    public void missingResourcesOfABatchResultAreForgotten() {
+        post(dom("app.css", "logo.png"));
+        String css = ResourceIndex.sha256("body of app.css");
+
+        index.invalidateMissing(new JSONObject().put("success", false).put("missingResources", new JSONArray().put(css)));
+
+        assertFalse(index.contains(css));
+        assertTrue(index.contains(ResourceIndex.sha256("body of logo.png")));
+    }
+
+    @Test
+    public void failedUploadsAreNotIndexed() {
+        cli.errorRate(1);
+        post(dom("app.css"));
+
+        assertEquals(0, index.size());
+    }
+
+    private PercyTransport.Response post(Map<String, Object> dom) {
+        return index.post(new JSONObject().put("name", "Snapshot"), dom, this::send);
+    }
+
+    private PercyTransport.Response send(HttpEntity entity) {
+        try {
+            return transport.send(PercyTransport.Request.post("/percy/snapshot", entity));
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    private static JSONObject last() {
+        List<JSONObject> snapshots = cli.snapshots();
+        return snapshots.get(snapshots.size() - 1);
+    }
+
+    private static Map<String, Object> dom(String... urls) {
+        Map<String, Object> dom = new HashMap<>();
+        dom.put("html", "<html></html>");
+        Object[] resources = new Object[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            Map<String, Object> resource = new HashMap<>();
+            resource.put("url", "http://localhost/" + urls[i]);
+            resource.put("mimetype", "text/plain");
+            resource.put("content", "body of " + urls[i]);
+            resources[i] = resource;
+        }
+        dom.put("resources", Arrays.asList(resources));
+        return dom;
+    }
+
+    // Prepared snapshots keep the shape of the ones passed in, a list of JSON-like maps
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> maps(Object value) {
+        return (List<Map<String, Object>>) value;
+    }
+}
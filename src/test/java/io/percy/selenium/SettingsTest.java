@@ -0,0 +1,22 @@
+package io.percy.selenium;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SettingsTest {
+    @Test
+    public void readsValidValues() {
+        assertEquals(4, Settings.parse("PERCY_UPLOAD_CONCURRENCY", "4", 2, 1, Integer.MAX_VALUE));
+        assertEquals(0, Settings.parse("PERCY_UPLOAD_BATCH_LINGER_MS", " 0 ", 100, 0, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void fallsBackToTheDefault() {
+        assertEquals(2, Settings.parse("PERCY_UPLOAD_CONCURRENCY", null, 2, 1, Integer.MAX_VALUE));
+        assertEquals(2, Settings.parse("PERCY_UPLOAD_CONCURRENCY", "", 2, 1, Integer.MAX_VALUE));
+        assertEquals(0, Settings.parse("PERCY_DOM_CHUNK_SIZE", "1m", 0, 0, Integer.MAX_VALUE));
+        // Below the minimum, e.g. a pool of no threads
+        assertEquals(2, Settings.parse("PERCY_UPLOAD_CONCURRENCY", "0", 2, 1, Integer.MAX_VALUE));
+        assertEquals(1000, Settings.parse("PERCY_LOG_BUFFER_SIZE", "4294967296", 1000, 1, Integer.MAX_VALUE));
+    }
+}
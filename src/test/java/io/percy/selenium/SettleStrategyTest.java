@@ -0,0 +1,48 @@
+package io.percy.selenium;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class SettleStrategyTest {
+    @Test
+    public void noneDoesNotWait() {
+        RemoteWebDriver driver = mock(RemoteWebDriver.class);
+        assertEquals(0, SettleStrategy.none().settle(driver, 375));
+        verifyNoInteractions(driver);
+    }
+
+    @Test
+    public void sleepReportsTheTimeWaited() {
+        long waited = SettleStrategy.sleep(Duration.ofMillis(50)).settle(mock(RemoteWebDriver.class), 375);
+        assertTrue(waited >= 50, "waited " + waited + "ms");
+    }
+
+    @Test
+    public void quietFramesWaitsInThePage() {
+        RemoteWebDriver driver = mock(RemoteWebDriver.class);
+        when(driver.executeAsyncScript(anyString(), any(), any())).thenReturn(true);
+
+        SettleStrategy.quietFrames(3, Duration.ofSeconds(2)).settle(driver, 375);
+
+        verify(driver, times(1)).executeAsyncScript(contains("requestAnimationFrame"), eq(3), eq(2000L));
+    }
+
+    @Test
+    public void parsesTheEnvironment() {
+        assertTrue(Percy.settleStrategyFromEnv("sleep:250", "") instanceof SleepSettleStrategy);
+        assertTrue(Percy.settleStrategyFromEnv("frames:2", "") instanceof QuietFramesSettleStrategy);
+        // The whole-second variable still works when the new one is unset
+        assertTrue(Percy.settleStrategyFromEnv("", "1") instanceof SleepSettleStrategy);
+
+        RemoteWebDriver driver = mock(RemoteWebDriver.class);
+        assertEquals(0, Percy.settleStrategyFromEnv("none", "1").settle(driver, 375));
+        assertEquals(0, Percy.settleStrategyFromEnv("sleep:abc", "").settle(driver, 375));
+    }
+}
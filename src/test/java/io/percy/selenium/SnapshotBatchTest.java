@@ -0,0 +1,95 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotBatchTest {
+    private static CliSimulator cli;
+
+    private RemoteWebDriver driver;
+
+    @BeforeAll
+    public static void startCli() throws IOException {
+        cli = CliSimulator.start().recordSnapshots(true);
+    }
+
+    @AfterAll
+    public static void stopCli() {
+        cli.stop();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        cli.reset();
+        cli.failSnapshots();
+        driver = CliSimulator.mockDriver();
+    }
+
+    @Test
+    public void uploadsCapturedSnapshotsInOneRequest() {
+        Percy percy = new Percy(driver, cli.address());
+        List<SnapshotRequest> requests = Arrays.asList(percy.capture("First"), percy.capture("Second"), percy.capture("Third"));
+
+        List<JSONObject> results = percy.snapshotBatch(requests);
+
+        assertEquals(3, results.size());
+        results.forEach(Assertions::assertNotNull);
+        assertEquals(1, cli.requestCount("/percy/snapshot/batch"));
+        assertEquals(0, cli.requestCount("/percy/snapshot"));
+        assertEquals("Second", cli.snapshots().get(1).getString("name"));
+    }
+
+    @Test
+    public void reportsFailuresPerSnapshot() {
+        cli.failSnapshots("Second");
+        Percy percy = new Percy(driver, cli.address());
+
+        List<JSONObject> results = percy.snapshotBatch(Arrays.asList(percy.capture("First"), percy.capture("Second"), percy.capture("Third")));
+
+        assertNotNull(results.get(0));
+        assertNull(results.get(1));
+        assertNotNull(results.get(2));
+        assertEquals(2, cli.snapshots().size());
+    }
+
+    @Test
+    public void uploadsEachRequestOnce() {
+        Percy percy = new Percy(driver, cli.address());
+        SnapshotRequest first = percy.capture("First");
+        percy.snapshotBatch(Arrays.asList(first, percy.capture("Second")));
+
+        List<JSONObject> results = percy.snapshotBatch(Arrays.asList(first));
+
+        assertNull(results.get(0));
+        assertEquals(2, cli.snapshots().size());
+    }
+
+    @Test
+    public void fallsBackToSingleUploadsWithoutABatchEndpoint() throws IOException {
+        CliSimulator oldCli = CliSimulator.start().recordSnapshots(true).batchEndpoint(false);
+        try {
+            Percy percy = new Percy(driver, oldCli.address());
+
+            List<JSONObject> results = percy.snapshotBatch(Arrays.asList(percy.capture("First"), percy.capture("Second")));
+            percy.snapshotBatch(Arrays.asList(percy.capture("Third"), percy.capture("Fourth")));
+
+            assertNotNull(results.get(0));
+            assertNotNull(results.get(1));
+            // The missing endpoint is remembered
+            assertEquals(1, oldCli.requestCount("/percy/snapshot/batch"));
+            assertEquals(4, oldCli.requestCount("/percy/snapshot"));
+        } finally {
+            oldCli.stop();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class SnapshotOptionsTest {
+    private static CliSimulator cli;
+
+    @BeforeAll
+    public static void startCli() throws IOException {
+        cli = CliSimulator.start().recordSnapshots(true);
+    }
+
+    @AfterAll
+    public static void stopCli() {
+        cli.stop();
+    }
+
+    @Test
+    public void rejectsInvalidOptionsWhenBuilt() {
+        assertThrows(IllegalArgumentException.class, () -> SnapshotOptions.builder().widths(375, 0));
+        assertThrows(IllegalArgumentException.class, () -> SnapshotOptions.builder().widths(Arrays.asList(375, null)));
+        assertThrows(IllegalArgumentException.class, () -> SnapshotOptions.builder().minHeight(-1));
+    }
+
+    @Test
+    public void templatesAreNotChangedByDerivedOptions() {
+        SnapshotOptions template = SnapshotOptions.builder().widths(375, 1280).minHeight(1024).build();
+
+        SnapshotOptions derived = template.toBuilder().percyCSS("h1 { color: red; }").minHeight(null).build();
+
+        assertEquals(new JSONObject("{\"widths\":[375,1280],\"minHeight\":1024}").toMap(), new JSONObject(template.json()).toMap());
+        assertFalse(derived.asMap().containsKey("minHeight"));
+        assertEquals("h1 { color: red; }", derived.asMap().get("percyCSS"));
+        assertThrows(UnsupportedOperationException.class, () -> template.getWidths().add(768));
+    }
+
+    @Test
+    public void mapsAreAdaptedWithoutNullValues() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("widths", Arrays.asList(375));
+        map.put("scope", null);
+        map.put("labels", "smoke");
+
+        SnapshotOptions options = SnapshotOptions.fromMap(map);
+        map.put("minHeight", 1024);
+
+        assertEquals(2, options.asMap().size());
+        assertEquals("smoke", options.asMap().get("labels"));
+        assertEquals(options, SnapshotOptions.builder().widths(375).option("labels", "smoke").build());
+        assertSame(SnapshotOptions.empty(), SnapshotOptions.fromMap(null));
+    }
+
+    @Test
+    public void payloadsDoNotShareState() {
+        SnapshotOptions options = SnapshotOptions.builder().enableJavaScript(true).build();
+
+        options.payload().put("name", "First");
+
+        assertFalse(options.payload().has("name"));
+        assertTrue(options.payload().getBoolean("enableJavaScript"));
+    }
+
+    @Test
+    public void sharedOptionsAreSentWithEverySnapshot() {
+        cli.reset();
+        RemoteWebDriver driver = CliSimulator.mockDriver();
+        Percy percy = new Percy(driver, cli.address());
+        SnapshotOptions options = SnapshotOptions.builder().widths(375).percyCSS("h1 { color: red; }").build();
+
+        percy.snapshot("First", options);
+        percy.snapshot("Second", options);
+
+        verify(driver, times(2)).executeScript(contains("PercyDOM.serialize(" + options.json() + ")"));
+        for (JSONObject snapshot : cli.snapshots()) {
+            assertEquals(375, snapshot.getJSONArray("widths").getInt(0));
+            assertEquals("h1 { color: red; }", snapshot.getString("percyCSS"));
+        }
+        assertEquals("Second", cli.snapshots().get(1).getString("name"));
+    }
+}
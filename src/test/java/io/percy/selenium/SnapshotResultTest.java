@@ -0,0 +1,94 @@
+package io.percy.selenium;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotResultTest {
+    private static CliSimulator cli;
+
+    private Percy percy;
+
+    @BeforeAll
+    public static void startCli() throws IOException {
+        cli = CliSimulator.start().recordSnapshots(true);
+    }
+
+    @AfterAll
+    public static void stopCli() {
+        cli.stop();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        cli.reset();
+        cli.latency(0, 0).errorRate(0);
+        SnapshotResults.getDefault().clear();
+        RemoteWebDriver driver = CliSimulator.mockDriver();
+        percy = new Percy(driver, cli.address());
+    }
+
+    @Test
+    public void returnsBeforeTheComparisonFinishes() throws Exception {
+        // The CLI answers sync snapshots once the comparison is done
+        cli.latency(500, 0);
+
+        long start = System.nanoTime();
+        SnapshotResult result = percy.snapshotDeferred("Home page", SnapshotOptions.builder().widths(375).build());
+        assertTrue(System.nanoTime() - start < 400_000_000L);
+        assertEquals(SnapshotResult.Status.PENDING, result.getStatus());
+        assertThrows(TimeoutException.class, () -> result.get(Duration.ofMillis(10)));
+
+        assertNotNull(result.get(Duration.ofSeconds(5)));
+        assertEquals(SnapshotResult.Status.COMPLETED, result.getStatus());
+        JSONObject uploaded = cli.snapshots().get(0);
+        assertTrue(uploaded.getBoolean("sync"));
+        assertEquals(375, uploaded.getJSONArray("widths").getInt(0));
+    }
+
+    @Test
+    public void awaitsEveryResultOfTheSuite() {
+        cli.latency(100, 50);
+        for (int i = 0; i < 5; i++) {
+            percy.snapshotDeferred("Page " + i);
+        }
+
+        List<SnapshotResult> results = SnapshotResults.getDefault().awaitAll(Duration.ofSeconds(10));
+
+        assertEquals(5, results.size());
+        assertEquals("Page 0", results.get(0).getName());
+        results.forEach(result -> assertEquals(SnapshotResult.Status.COMPLETED, result.getStatus()));
+        assertEquals(5, cli.snapshots().size());
+        // Reported results are not kept
+        assertTrue(SnapshotResults.getDefault().getResults().isEmpty());
+    }
+
+    @Test
+    public void reportsFailedAndPendingResults() {
+        cli.errorRate(1);
+        SnapshotResult failed = percy.snapshotDeferred("Failed");
+        SnapshotResult pending = new SnapshotResult("Pending", new CompletableFuture<>());
+        SnapshotResults.getDefault().add(pending);
+
+        List<SnapshotResult> results = SnapshotResults.getDefault().awaitAll(Duration.ofMillis(500));
+
+        assertEquals(SnapshotResult.Status.FAILED, failed.getStatus());
+        assertNull(failed.getData());
+        assertEquals(SnapshotResult.Status.PENDING, results.get(1).getStatus());
+        assertEquals(Collections.singletonList(pending), SnapshotResults.getDefault().getResults());
+        // The handle cannot be completed through its future
+        pending.toFuture().complete(new JSONObject());
+        assertEquals(SnapshotResult.Status.PENDING, pending.getStatus());
+    }
+}
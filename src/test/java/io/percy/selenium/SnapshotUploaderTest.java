@@ -0,0 +1,152 @@
+package io.percy.selenium;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnapshotUploaderTest {
+
+    @Test
+    public void completesFutureWithUploadResult() throws Exception {
+        SnapshotUploader uploader = new SnapshotUploader(1, 4);
+        CompletableFuture<JSONObject> future = uploader.submit("Test", () -> new JSONObject().put("name", "Test"));
+
+        assertEquals("Test", future.get(5, TimeUnit.SECONDS).getString("name"));
+        uploader.close(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void completesFutureWithNullWhenUploadFails() throws Exception {
+        SnapshotUploader uploader = new SnapshotUploader(1, 4);
+        CompletableFuture<JSONObject> future = uploader.submit("Test", () -> { throw new RuntimeException("boom"); });
+
+        assertNull(future.get(5, TimeUnit.SECONDS));
+        uploader.close(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void flushWaitsForPendingUploads() {
+        SnapshotUploader uploader = new SnapshotUploader(2, 4);
+        for (int i = 0; i < 4; i++) {
+            uploader.submit("Test " + i, () -> {
+                sleep(100);
+                return new JSONObject();
+            });
+        }
+
+        assertTrue(uploader.flush(Duration.ofSeconds(5)));
+        assertEquals(0, uploader.pendingCount());
+        uploader.close(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void flushGivesUpAtDeadline() {
+        SnapshotUploader uploader = new SnapshotUploader(1, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        uploader.submit("Slow", () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+            return new JSONObject();
+        });
+
+        assertFalse(uploader.flush(Duration.ofMillis(100)));
+        assertEquals(1, uploader.pendingCount());
+        release.countDown();
+        assertTrue(uploader.close(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    public void runsOnCallerWhenQueueIsFull() {
+        SnapshotUploader uploader = new SnapshotUploader(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable block = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        };
+        uploader.submit("Busy worker", () -> { block.run(); return null; });
+        uploader.submit("Queued", () -> { block.run(); return null; });
+
+        Thread caller = Thread.currentThread();
+        CompletableFuture<JSONObject> future = uploader.submit("Caller", () -> {
+            assertSame(caller, Thread.currentThread());
+            return new JSONObject();
+        });
+
+        assertTrue(future.isDone());
+        assertNotNull(future.join());
+        release.countDown();
+        uploader.close(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void runsUploadsSubmittedAfterClose() {
+        SnapshotUploader uploader = new SnapshotUploader(1, 4, 2, 60000);
+        uploader.close(Duration.ofSeconds(1));
+
+        CompletableFuture<JSONObject> single = uploader.submit("Late", () -> new JSONObject());
+        uploader.submitBatched("a", "first", items -> Arrays.asList(new JSONObject(), new JSONObject()));
+        CompletableFuture<JSONObject> batched = uploader.submitBatched("a", "second", items -> Arrays.asList(new JSONObject(), new JSONObject()));
+
+        assertNotNull(single.getNow(null));
+        assertNotNull(batched.getNow(null));
+        assertEquals(0, uploader.pendingCount());
+    }
+
+    @Test
+    public void groupsBatchedItemsUntilTheBatchIsFull() throws Exception {
+        SnapshotUploader uploader = new SnapshotUploader(2, 8, 3, 60000);
+        List<List<String>> batches = new CopyOnWriteArrayList<>();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[3];
+        for (int i = 0; i < 3; i++) {
+            futures[i] = uploader.submitBatched("key", "item " + i, items -> {
+                batches.add(items);
+                return items.stream().map(item -> new JSONObject().put("name", item)).collect(Collectors.toList());
+            });
+        }
+
+        assertEquals("item 2", ((JSONObject) futures[2].get(5, TimeUnit.SECONDS)).getString("name"));
+        assertEquals(1, batches.size());
+        assertEquals(3, batches.get(0).size());
+        uploader.close(Duration.ofSeconds(1));
+    }
+
+    @Test
+    public void sendsPartialBatchesAfterLingerOrOnFlush() throws Exception {
+        SnapshotUploader uploader = new SnapshotUploader(2, 8, 3, 50);
+        CompletableFuture<JSONObject> lingered = uploader.submitBatched("a", "item", items -> {
+            return items.stream().map(item -> new JSONObject()).collect(Collectors.toList());
+        });
+        assertNotNull(lingered.get(5, TimeUnit.SECONDS));
+
+        SnapshotUploader waiting = new SnapshotUploader(2, 8, 3, 60000);
+        CompletableFuture<JSONObject> flushed = waiting.submitBatched("a", "item", items -> {
+            return items.stream().map(item -> new JSONObject()).collect(Collectors.toList());
+        });
+        assertFalse(flushed.isDone());
+        assertTrue(waiting.flush(Duration.ofSeconds(5)));
+        assertTrue(flushed.isDone());
+
+        uploader.close(Duration.ofSeconds(1));
+        waiting.close(Duration.ofSeconds(1));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package io.percy.selenium;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class WindowedCaptureTest {
+    private RemoteWebDriver driver;
+    private WebDriver.TargetLocator targetLocator;
+    private final AtomicReference<String> currentWindow = new AtomicReference<>("main");
+
+    @BeforeEach
+    public void testSetup() {
+        driver = mock(RemoteWebDriver.class);
+        targetLocator = mock(WebDriver.TargetLocator.class);
+        currentWindow.set("main");
+        when(driver.switchTo()).thenReturn(targetLocator);
+        when(targetLocator.window(anyString())).thenAnswer(invocation -> {
+            currentWindow.set(invocation.getArgument(0));
+            return driver;
+        });
+        when(driver.getWindowHandle()).thenReturn("main");
+    }
+
+    @Test
+    public void capturesEachWidthInItsOwnWindow() {
+        when(driver.getWindowHandles())
+            .thenReturn(new HashSet<>(Collections.singletonList("main")))
+            .thenReturn(new HashSet<>(Arrays.asList("main", "w1", "w2")));
+        when(driver.executeScript(contains("document.readyState"))).thenAnswer(invocation ->
+            "w1".equals(currentWindow.get()) ? "percy-width-1280" : "percy-width-375");
+        when(driver.executeScript(contains("innerWidth"))).thenAnswer(invocation ->
+            "w1".equals(currentWindow.get()) ? 1280L : 375L);
+
+        List<String> captured = WindowedCapture.capture(driver, Arrays.asList(375, 1280), 800, width -> {},
+            width -> width + "@" + currentWindow.get());
+
+        assertEquals(Arrays.asList("375@w2", "1280@w1"), captured);
+        verify(driver, times(2)).close();
+        assertEquals("main", currentWindow.get());
+    }
+
+    @Test
+    public void returnsNullWhenAWindowIsNotGivenItsWidth() {
+        when(driver.getWindowHandles())
+            .thenReturn(new HashSet<>(Collections.singletonList("main")))
+            .thenReturn(new HashSet<>(Arrays.asList("main", "w1", "w2")));
+        when(driver.executeScript(contains("document.readyState"))).thenAnswer(invocation ->
+            "w1".equals(currentWindow.get()) ? "percy-width-1280" : "percy-width-375");
+        // The browser's minimum window width
+        when(driver.executeScript(contains("innerWidth"))).thenAnswer(invocation ->
+            "w1".equals(currentWindow.get()) ? 1280L : 500L);
+
+        List<String> captured = WindowedCapture.capture(driver, Arrays.asList(375, 1280), 800, width -> {},
+            width -> { throw new AssertionError("nothing should be captured"); });
+
+        assertNull(captured);
+        verify(driver, times(2)).close();
+        assertEquals("main", currentWindow.get());
+    }
+
+    @Test
+    public void returnsNullWhenWindowsAreBlocked() {
+        when(driver.getWindowHandles()).thenReturn(new HashSet<>(Collections.singletonList("main")));
+
+        List<String> captured = WindowedCapture.capture(driver, Arrays.asList(375, 1280), 800, width -> {},
+            width -> { throw new AssertionError("nothing should be captured"); });
+
+        assertNull(captured);
+        verify(driver, never()).close();
+        assertEquals("main", currentWindow.get());
+    }
+}